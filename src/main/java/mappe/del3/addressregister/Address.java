@@ -1,8 +1,5 @@
 package mappe.del3.addressregister;
 
-import java.text.DecimalFormat;
-import java.util.Objects;
-
 /**
  * Creates an instance of a Norwegian Address. An address must consists of a zip code,
  * postal, municipal code, municipality name and category.
@@ -16,7 +13,19 @@ public class Address {
     private final String municipalCode;
     private final String municipalityName;
     private final char category;
-    private static final DecimalFormat decimalFormat = new DecimalFormat("0000"); // gives a number for digits (1 = 0001)
+    private final int hash; // hash code computed once, the address is immutable.
+
+    private static final String[] CODES = new String[10000]; // Every code as a String with 4 digits (1 = 0001)
+
+    static {
+        for (int code = 0; code < CODES.length; code++) {
+            char[] digits = {'0', '0', '0', '0'};
+            for (int i = 3, rest = code; i >= 0 && rest > 0; i--, rest /= 10) {
+                digits[i] = (char) ('0' + rest % 10);
+            }
+            CODES[code] = new String(digits);
+        }
+    }
 
     /**
      * Constructor. Creates an instance of Address
@@ -28,15 +37,24 @@ public class Address {
      * @param category A character between a-z
      */
     public Address(int zipCode, String postal, int municipalCode, String municipalityName, char category) {
-        if (zipCode < 1 || zipCode > 9999) {
-            throw new IllegalArgumentException("Zip code must be between 0001-9999");
-        }
+        this(formatCode(zipCode, "Zip code"), postal.toUpperCase(), //gives the postal uppercase letters
+                formatCode(municipalCode, "Municipal code"), municipalityName.toUpperCase(), category);
+    }
+
+    /**
+     * Constructor used when the codes are already formatted and the
+     * names are already in upper case, as in AddressFactory.
+     *
+     * @param zipCode Zip code with 4 digits
+     * @param postal Name of the address in upper case
+     * @param municipalCode Municipal code with 4 digits
+     * @param municipalityName Name of the municipality in upper case
+     * @param category A character between a-z
+     */
+    Address(String zipCode, String postal, String municipalCode, String municipalityName, char category) {
         if (postal.equals("")) {
             throw new IllegalArgumentException("Address must have a postal");
         }
-        if (municipalCode < 1 || municipalCode > 9999) {
-            throw new IllegalArgumentException("Municipal code must be between 0001-9999");
-        }
         if (municipalityName.equals("")) {
             throw new IllegalArgumentException("Address must have a municipality name");
         }
@@ -44,11 +62,28 @@ public class Address {
             throw new IllegalArgumentException("Category must be a letter");
         }
 
-        this.zipCode = decimalFormat.format(zipCode); // Changes the int zipCode to a String with 4 digits. (int 1 = String 0001)
-        this.postal = postal.toUpperCase(); //gives the postal uppercase letters
-        this.municipalCode = decimalFormat.format(municipalCode); // Changes the int zipCode to a String with 4 digits. (int 1 = String 0001)
-        this.municipalityName = municipalityName.toUpperCase();
+        this.zipCode = zipCode;
+        this.postal = postal;
+        this.municipalCode = municipalCode;
+        this.municipalityName = municipalityName;
         this.category = category;
+        this.hash = computeHash();
+    }
+
+    /**
+     * Returns a code as a String with 4 digits (1 = 0001). The Strings
+     * are made once in a table, so no String is created per address
+     * and it is safe to call from several threads.
+     *
+     * @param code number between 0001-9999
+     * @param name name of the code, used in the exception message
+     * @return the code with leading zeros
+     */
+    static String formatCode(int code, String name) {
+        if (code < 1 || code > 9999) {
+            throw new IllegalArgumentException(name + " must be between 0001-9999");
+        }
+        return CODES[code];
     }
 
     // Get methods
@@ -84,16 +119,36 @@ public class Address {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         Address Address = (Address) o;
-        return zipCode.equals(Address.zipCode) &&
+        return hash == Address.hash &&
+                zipCode.equals(Address.zipCode) &&
                 municipalCode.equals(Address.municipalCode) &&
                 category == Address.category &&
-                Objects.equals(postal, Address.postal) &&
-                Objects.equals(municipalityName, Address.municipalityName);
+                postal.equals(Address.postal) &&
+                municipalityName.equals(Address.municipalityName);
     }
 
+    /**
+     * Returns the cached hash code. The hash is computed once in the
+     * constructor, since all fields are final.
+     * @return hash code of the address
+     */
     @Override
     public int hashCode() {
-        return Objects.hash(zipCode, postal, municipalCode, municipalityName, category);
+        return hash;
+    }
+
+    /**
+     * Computes the hash code from all fields without
+     * the varargs array used by Objects.hash.
+     * @return hash code of the address
+     */
+    private int computeHash() {
+        int result = zipCode.hashCode();
+        result = 31 * result + postal.hashCode();
+        result = 31 * result + municipalCode.hashCode();
+        result = 31 * result + municipalityName.hashCode();
+        result = 31 * result + category;
+        return result;
     }
 
     /**
@@ -0,0 +1,194 @@
+package mappe.del3.addressregister;
+
+import java.util.Arrays;
+
+/**
+ * Columnar storage of addresses. Every address is a row, and each field
+ * is stored in its own primitive array: the codes as shorts, the names as
+ * ids into a NameDictionary and the category as a byte. This takes about
+ * 13 bytes per address, compared to several hundred bytes for an Address
+ * object with its Strings.
+ *
+ * Rows are only appended. A removed row is marked as deleted, and the row
+ * numbers of the other rows do not change until the register is compacted.
+ *
+ * A snapshot shares the arrays with the columns it was taken from. This is
+ * safe because a row is never changed after it is appended: new rows are
+ * written after the end of the snapshot, growing makes new arrays, and the
+ * deleted bit set is copied before the first delete after a snapshot.
+ *
+ * @author Sindre Glomnes
+ * @version 2021-05-14
+ */
+class AddressColumns {
+    private short[] zipCodes; // Zip code of each row
+    private short[] municipalCodes; // Municipal code of each row
+    private int[] postalIds; // Dictionary id of the postal of each row
+    private int[] municipalityNameIds; // Dictionary id of the municipality name of each row
+    private byte[] categories; // Category of each row
+    private long[] deleted; // Bit set of deleted rows
+    private int size; // Number of rows, including deleted rows
+    private int deletedCount; // Number of deleted rows
+    private boolean deletedShared; // True if a snapshot uses the deleted bit set
+
+    /**
+     * Constructor. Creates empty columns with room for capacity rows.
+     *
+     * @param capacity initial capacity
+     */
+    AddressColumns(int capacity) {
+        capacity = Math.max(capacity, 16);
+        zipCodes = new short[capacity];
+        municipalCodes = new short[capacity];
+        postalIds = new int[capacity];
+        municipalityNameIds = new int[capacity];
+        categories = new byte[capacity];
+        deleted = new long[(capacity + 63) >>> 6];
+    }
+
+    /**
+     * Constructor used by snapshot. Shares the arrays of the columns.
+     *
+     * @param source the columns to share arrays with
+     */
+    private AddressColumns(AddressColumns source) {
+        zipCodes = source.zipCodes;
+        municipalCodes = source.municipalCodes;
+        postalIds = source.postalIds;
+        municipalityNameIds = source.municipalityNameIds;
+        categories = source.categories;
+        deleted = source.deleted;
+        size = source.size;
+        deletedCount = source.deletedCount;
+        deletedShared = true;
+    }
+
+    /**
+     * Returns columns with the rows as they are now. The snapshot
+     * must only be read, and is not changed by later changes to
+     * these columns.
+     *
+     * @return the snapshot
+     */
+    AddressColumns snapshot() {
+        deletedShared = true;
+        return new AddressColumns(this);
+    }
+
+    /**
+     * Makes room for at least capacity rows.
+     *
+     * @param capacity number of rows
+     */
+    void ensureCapacity(int capacity) {
+        if (capacity > zipCodes.length) {
+            zipCodes = Arrays.copyOf(zipCodes, capacity);
+            municipalCodes = Arrays.copyOf(municipalCodes, capacity);
+            postalIds = Arrays.copyOf(postalIds, capacity);
+            municipalityNameIds = Arrays.copyOf(municipalityNameIds, capacity);
+            categories = Arrays.copyOf(categories, capacity);
+            deleted = Arrays.copyOf(deleted, (capacity + 63) >>> 6);
+            deletedShared = false;
+        }
+    }
+
+    /**
+     * Adds a row to the end of the columns.
+     *
+     * @param zipCode zip code between 1-9999
+     * @param municipalCode municipal code between 1-9999
+     * @param postalId dictionary id of the postal
+     * @param municipalityNameId dictionary id of the municipality name
+     * @param category category letter
+     * @return row number of the new row
+     */
+    int append(int zipCode, int municipalCode, int postalId, int municipalityNameId, char category) {
+        if (size == zipCodes.length) {
+            ensureCapacity(size + (size >> 1) + 1);
+        }
+        zipCodes[size] = (short) zipCode;
+        municipalCodes[size] = (short) municipalCode;
+        postalIds[size] = postalId;
+        municipalityNameIds[size] = municipalityNameId;
+        categories[size] = (byte) category;
+        return size++;
+    }
+
+    /**
+     * Marks a row as deleted.
+     *
+     * @param row row number
+     */
+    void delete(int row) {
+        if (deletedShared) {
+            deleted = deleted.clone();
+            deletedShared = false;
+        }
+        deleted[row >>> 6] |= 1L << row;
+        deletedCount++;
+    }
+
+    /**
+     * @param row row number
+     * @return true if the row is not deleted
+     */
+    boolean isLive(int row) {
+        return (deleted[row >>> 6] & (1L << row)) == 0;
+    }
+
+    // Get methods for the fields of a row
+    int zipCode(int row) {
+        return zipCodes[row];
+    }
+
+    int municipalCode(int row) {
+        return municipalCodes[row];
+    }
+
+    int postalId(int row) {
+        return postalIds[row];
+    }
+
+    int municipalityNameId(int row) {
+        return municipalityNameIds[row];
+    }
+
+    char category(int row) {
+        return (char) categories[row];
+    }
+
+    /**
+     * @return number of rows, including deleted rows
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return number of rows that are not deleted
+     */
+    int liveCount() {
+        return size - deletedCount;
+    }
+
+    /**
+     * @return number of deleted rows
+     */
+    int deletedCount() {
+        return deletedCount;
+    }
+
+    /**
+     * Creates an Address object for a row.
+     *
+     * @param row row number
+     * @param dictionary the dictionary of the name ids
+     * @return the address
+     */
+    Address toAddress(int row, NameDictionary dictionary) {
+        // The names in the dictionary are already in upper case.
+        return new Address(Address.formatCode(zipCodes[row], "Zip code"), dictionary.name(postalIds[row]),
+                Address.formatCode(municipalCodes[row], "Municipal code"),
+                dictionary.name(municipalityNameIds[row]), (char) categories[row]);
+    }
+}
@@ -0,0 +1,66 @@
+package mappe.del3.addressregister;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Factory for Address objects. In the postal register a few hundred
+ * municipality names, and many postal names, are repeated thousands of
+ * times. The factory gives every name in upper case from a shared pool,
+ * so all addresses with the same name share one String, and the codes
+ * are taken from a precomputed table in Address.
+ *
+ * The factory is safe to use from several threads, for example
+ * from the tasks of a parallel import.
+ *
+ * @author Sindre Glomnes
+ * @version 2021-05-14
+ */
+public class AddressFactory {
+    private static final int MAX_POOL_SIZE = 100000; // Names kept in the pool, protects against unbounded input
+    private static final ConcurrentHashMap<String, String> pool = new ConcurrentHashMap<>(); // Name as read -> name in upper case
+
+    /**
+     * Constructor. The factory only has static methods.
+     */
+    private AddressFactory() {
+    }
+
+    /**
+     * Creates an address with canonical names. Has the same
+     * rules as the constructor of Address.
+     *
+     * @param zipCode Number between (0001-9999)
+     * @param postal Name of the address
+     * @param municipalCode Number between 0301-9999
+     * @param municipalityName Name of the municipality
+     * @param category A character between a-z
+     * @return the address
+     */
+    public static Address create(int zipCode, String postal, int municipalCode, String municipalityName, char category) {
+        return new Address(Address.formatCode(zipCode, "Zip code"), canonicalName(postal),
+                Address.formatCode(municipalCode, "Municipal code"), canonicalName(municipalityName), category);
+    }
+
+    /**
+     * Returns the shared upper case instance of a name.
+     *
+     * @param name the name as read
+     * @return the name in upper case
+     */
+    public static String canonicalName(String name) {
+        String canonical = pool.get(name);
+        if (canonical == null) {
+            String upperCase = name.toUpperCase();
+            if (pool.size() >= MAX_POOL_SIZE) {
+                return upperCase;
+            }
+            // Both the upper case name and the name as read point to the same instance.
+            canonical = pool.putIfAbsent(upperCase, upperCase);
+            if (canonical == null) {
+                canonical = upperCase;
+            }
+            pool.putIfAbsent(name, canonical);
+        }
+        return canonical;
+    }
+}
@@ -0,0 +1,34 @@
+package mappe.del3.addressregister;
+
+/**
+ * The searchable fields of an Address. The register
+ * has a sorted index for each field.
+ *
+ * @author Sindre Glomnes
+ * @version 2021-05-14
+ */
+public enum AddressField {
+    ZIP_CODE,
+    POSTAL,
+    MUNICIPAL_CODE,
+    MUNICIPALITY_NAME,
+    CATEGORY;
+
+    /**
+     * Normalizes a search term to the form used in the index of this field.
+     *
+     * @param term the search term
+     * @return names in upper case, the first character in upper case for category, other terms unchanged
+     */
+    String normalize(String term) {
+        switch (this) {
+            case POSTAL:
+            case MUNICIPALITY_NAME:
+                return term.toUpperCase();
+            case CATEGORY:
+                return term.isEmpty() ? term : term.substring(0, 1).toUpperCase();
+            default:
+                return term;
+        }
+    }
+}
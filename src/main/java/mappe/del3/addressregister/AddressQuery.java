@@ -0,0 +1,363 @@
+package mappe.del3.addressregister;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A query on the addresses in the register. A query is either a predicate
+ * on one field (the field starts with a term, or for category is equal to it),
+ * or a conjunction (and) or disjunction (or) of other queries.
+ *
+ * Queries can be built with the static methods, or parsed from text such as
+ * {@code zip:50 AND category:P} or {@code (postal:oslo OR postal:bergen) AND category:G}.
+ *
+ * When the register runs a conjunction, the parts answered by bitmap indexes
+ * are intersected, and the smallest of that intersection and the other parts
+ * according to the field indexes is run first. The rows it finds are then
+ * checked against the other parts.
+ *
+ * Queries are immutable, and are equal when they have the same structure,
+ * fields and normalized terms, so they can be used as keys of a cache.
+ *
+ * @author Sindre Glomnes
+ * @version 2021-05-14
+ */
+public abstract class AddressQuery {
+
+    /**
+     * Constructor. Queries are created with the static methods.
+     */
+    AddressQuery() {
+    }
+
+    /**
+     * Creates a query for addresses where a field starts with the term.
+     * For category the field must be equal to the first character of the term.
+     *
+     * @param field the field
+     * @param term the start of the field value
+     * @return the query
+     */
+    public static AddressQuery field(AddressField field, String term) {
+        return new FieldQuery(field, field.normalize(term));
+    }
+
+    /**
+     * Creates a query for addresses matching all the queries.
+     *
+     * @param queries the queries
+     * @return the query
+     */
+    public static AddressQuery and(AddressQuery... queries) {
+        return new AndQuery(Arrays.asList(queries));
+    }
+
+    /**
+     * Creates a query for addresses matching at least one of the queries.
+     *
+     * @param queries the queries
+     * @return the query
+     */
+    public static AddressQuery or(AddressQuery... queries) {
+        return new OrQuery(Arrays.asList(queries));
+    }
+
+    /**
+     * Parses a query from text. See QueryParser for the syntax.
+     *
+     * @param text the query text
+     * @return the query
+     * @throws IllegalArgumentException if the text is not a valid query
+     */
+    public static AddressQuery parse(String text) {
+        return new QueryParser(text).parse();
+    }
+
+    /**
+     * Estimates the number of rows matching the query from the field indexes.
+     *
+     * @param planner the planner of the register
+     * @return estimated number of rows
+     */
+    abstract long estimate(QueryPlanner planner);
+
+    /**
+     * Finds the rows matching the query.
+     *
+     * @param planner the planner of the register
+     * @return row numbers, in no particular order and possibly including deleted rows
+     */
+    abstract IntList rows(QueryPlanner planner);
+
+    /**
+     * Checks if one row matches the query.
+     *
+     * @param planner the planner of the register
+     * @param row row number
+     * @return true if the row matches
+     */
+    abstract boolean matches(QueryPlanner planner, int row);
+
+    /**
+     * Returns a bitmap with exactly the rows matching the query,
+     * if the query can be answered from a bitmap index.
+     *
+     * @param planner the planner of the register
+     * @return the rows, which must only be read, or null
+     */
+    RowBitmap bitmap(QueryPlanner planner) {
+        return null;
+    }
+
+    /**
+     * Joins the text of the queries with a separator.
+     *
+     * @param queries the queries
+     * @param separator text between the queries
+     * @return the joined text
+     */
+    private static String join(List<AddressQuery> queries, String separator) {
+        StringBuilder sb = new StringBuilder();
+        for (AddressQuery query : queries) {
+            if (sb.length() > 0) {
+                sb.append(separator);
+            }
+            sb.append(query);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Query on one field.
+     */
+    static class FieldQuery extends AddressQuery {
+        private final AddressField field; // The field
+        private final String term; // Normalized start of the field value
+
+        FieldQuery(AddressField field, String term) {
+            this.field = field;
+            this.term = term;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof FieldQuery)) return false;
+            FieldQuery that = (FieldQuery) o;
+            return field == that.field && term.equals(that.term);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(field, term);
+        }
+
+        AddressField getField() {
+            return field;
+        }
+
+        String getTerm() {
+            return term;
+        }
+
+        @Override
+        long estimate(QueryPlanner planner) {
+            return planner.count(field, term);
+        }
+
+        @Override
+        IntList rows(QueryPlanner planner) {
+            return planner.lookup(field, term);
+        }
+
+        @Override
+        boolean matches(QueryPlanner planner, int row) {
+            return planner.matches(field, term, row);
+        }
+
+        @Override
+        RowBitmap bitmap(QueryPlanner planner) {
+            return planner.bitmap(field, term);
+        }
+
+        @Override
+        public String toString() {
+            return field + ":" + term;
+        }
+    }
+
+    /**
+     * Query matching all of its parts.
+     */
+    static class AndQuery extends AddressQuery {
+        private final List<AddressQuery> queries; // The parts
+
+        AndQuery(List<AddressQuery> queries) {
+            if (queries.isEmpty()) {
+                throw new IllegalArgumentException("A query must have at least one part");
+            }
+            this.queries = List.copyOf(queries);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof AndQuery)) return false;
+            return queries.equals(((AndQuery) o).queries);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * queries.hashCode() + 1;
+        }
+
+        @Override
+        long estimate(QueryPlanner planner) {
+            long estimate = Long.MAX_VALUE;
+            for (AddressQuery query : queries) {
+                estimate = Math.min(estimate, query.estimate(planner));
+            }
+            return estimate;
+        }
+
+        /**
+         * Intersects the parts with bitmaps, runs the most selective of that
+         * intersection and the other parts, and checks its rows against the rest.
+         */
+        @Override
+        IntList rows(QueryPlanner planner) {
+            RowBitmap intersection = null;
+            ArrayList<AddressQuery> ordered = new ArrayList<>(queries.size());
+            for (AddressQuery query : queries) {
+                RowBitmap bitmap = query.bitmap(planner);
+                if (bitmap == null) {
+                    ordered.add(query);
+                } else {
+                    intersection = intersection == null ? bitmap : intersection.and(bitmap);
+                }
+            }
+
+            // Each part is estimated once, then the parts are ordered from most to least selective.
+            IdentityHashMap<AddressQuery, Long> estimates = new IdentityHashMap<>();
+            for (AddressQuery query : ordered) {
+                estimates.put(query, query.estimate(planner));
+            }
+            ordered.sort(Comparator.comparingLong(estimates::get));
+
+            IntList candidates;
+            List<AddressQuery> rest;
+            RowBitmap filter = intersection;
+            if (ordered.isEmpty() || intersection != null && intersection.cardinality() <= estimates.get(ordered.get(0))) {
+                candidates = intersection.toIntList();
+                rest = ordered;
+                filter = null;
+            } else {
+                candidates = ordered.get(0).rows(planner);
+                rest = ordered.subList(1, ordered.size());
+            }
+            IntList result = new IntList(candidates.size());
+            planner.checkCancelled();
+            for (int i = 0; i < candidates.size(); i++) {
+                planner.checkCancelled(i);
+                int row = candidates.get(i);
+                if ((filter == null || filter.contains(row)) && matchesAll(rest, planner, row)) {
+                    result.add(row);
+                }
+            }
+            return result;
+        }
+
+        @Override
+        boolean matches(QueryPlanner planner, int row) {
+            return matchesAll(queries, planner, row);
+        }
+
+        private static boolean matchesAll(List<AddressQuery> queries, QueryPlanner planner, int row) {
+            for (AddressQuery query : queries) {
+                if (!query.matches(planner, row)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return "(" + join(queries, " AND ") + ")";
+        }
+    }
+
+    /**
+     * Query matching at least one of its parts.
+     */
+    static class OrQuery extends AddressQuery {
+        private final List<AddressQuery> queries; // The parts
+
+        OrQuery(List<AddressQuery> queries) {
+            if (queries.isEmpty()) {
+                throw new IllegalArgumentException("A query must have at least one part");
+            }
+            this.queries = List.copyOf(queries);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof OrQuery)) return false;
+            return queries.equals(((OrQuery) o).queries);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * queries.hashCode() + 2;
+        }
+
+        @Override
+        long estimate(QueryPlanner planner) {
+            long estimate = 0;
+            for (AddressQuery query : queries) {
+                estimate += query.estimate(planner);
+            }
+            return estimate;
+        }
+
+        /**
+         * Runs every part and merges the rows without duplicates.
+         */
+        @Override
+        IntList rows(QueryPlanner planner) {
+            IntList all = new IntList();
+            for (AddressQuery query : queries) {
+                all.addAll(query.rows(planner));
+                planner.checkCancelled();
+            }
+            all.sort();
+            IntList result = new IntList(all.size());
+            for (int i = 0; i < all.size(); i++) {
+                if (i == 0 || all.get(i) != all.get(i - 1)) {
+                    result.add(all.get(i));
+                }
+            }
+            return result;
+        }
+
+        @Override
+        boolean matches(QueryPlanner planner, int row) {
+            for (AddressQuery query : queries) {
+                if (query.matches(planner, row)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            return "(" + join(queries, " OR ") + ")";
+        }
+    }
+}
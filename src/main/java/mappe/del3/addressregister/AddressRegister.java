@@ -2,27 +2,82 @@ package mappe.del3.addressregister;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.stream.Collectors;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * A register of Addresses. The class is singleton.
- * Register stores all addresses added to
- * the application in an ArrayList.
+ * Register stores all addresses added to the application in
+ * columns of primitive arrays (AddressColumns), with the names
+ * stored once in a NameDictionary. Address objects are only
+ * created when addresses are read from the register.
+ * A hash index gives constant time add, remove and duplicate
+ * checks, and the addresses are kept in insertion order.
+ * Every field has a sorted index, which is used by the search methods.
+ * The category and the first digit of the zip code also have bitmap
+ * indexes, which give the number of addresses with a value in O(1).
+ * The distinct postal and municipality names are kept in BK-trees
+ * for searches that allow spelling mistakes, and in trigram indexes
+ * for searches on any part of the name.
  * Addresses can be added, removed, searched by.
  * The register can also be cleared of all addresses.
  *
+ * The register is safe to use from several threads. A read/write lock
+ * lets any number of searches run at the same time, while adding,
+ * removing and clearing get the register for themselves.
+ * Reading all addresses gives a RegisterSnapshot, which is a
+ * point-in-time view that can be read without holding any lock.
+ * Searches give a SearchResult, which holds the row numbers of the
+ * matches and only creates the addresses that are read. The results
+ * of recent queries are cached until the register changes, and a
+ * search that extends the last term searched by in the same field
+ * only checks the addresses found by that search.
+ *
+ * Listeners are told about every change with a RegisterEvent, so a
+ * view of the addresses can be updated without reading all of them.
+ *
  * @author Sindre Glomnes
  * @version 2021-05-14
  */
 public class AddressRegister {
-    private final ArrayList<Address> addressRegister = new ArrayList<>(); // ArrayList of all addresses added.
-    private ArrayList<Address> filteredAddressRegister = new ArrayList<>(); // ArrayList of all addresses search of.
+    private static final int MIN_COMPACT = 1024; // Fewest deleted rows before the register is compacted
+
+    private final NameDictionary dictionary = new NameDictionary(); // All postal and municipality names
+    private AddressColumns columns = new AddressColumns(16); // All addresses added, in insertion order.
+    private RowHashIndex identityIndex = new RowHashIndex(columns, 16); // Finds the row of an address
+    private volatile SearchResult filteredAddressRegister = SearchResult.empty(); // Result of the last search.
+    private final EnumMap<AddressField, FieldIndex> indexes = new EnumMap<>(AddressField.class); // Sorted index for each field except category.
+    private final BitmapIndex categoryBitmaps = new BitmapIndex(256); // Rows of each category
+    private final BitmapIndex zipDigitBitmaps = new BitmapIndex(10); // Rows of each first digit of the zip code
+    private final FuzzyNameIndex postalNames = new FuzzyNameIndex(); // Distinct postal names
+    private final FuzzyNameIndex municipalityNames = new FuzzyNameIndex(); // Distinct municipality names
+    private final TrigramIndex postalTrigrams = new TrigramIndex(); // Trigrams of the postal names
+    private final TrigramIndex municipalityTrigrams = new TrigramIndex(); // Trigrams of the municipality names
+    private long version; // Number of changes to the register
+    private final SearchCache searchCache = new SearchCache(64); // Recent query results, stamped with the version
+    private final ConcurrentHashMap<AddressField, LastSearch> lastSearches = new ConcurrentHashMap<>(); // Last search by each field
+    private final AtomicLong refinements = new AtomicLong(); // Searches answered by refining the last search
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock(); // Guards all fields above
+    private final Lock readLock = lock.readLock(); // Held by searches and readers
+    private final Lock writeLock = lock.writeLock(); // Held by changes to the register
+    private final CopyOnWriteArrayList<RegisterListener> listeners = new CopyOnWriteArrayList<>(); // Told about every change
     private static final AddressRegister register = new AddressRegister(); // Static instance of AddressRegister.
 
     /**
-     * Constructor
+     * Constructor. Creates an empty index for each field.
+     * Category only has a bitmap index.
      */
     private AddressRegister() {
+        for (AddressField field : AddressField.values()) {
+            if (field != AddressField.CATEGORY) {
+                indexes.put(field, new FieldIndex());
+            }
+        }
     }
 
     /**
@@ -33,6 +88,24 @@ public class AddressRegister {
         return register;
     }
 
+    /**
+     * Adds a listener, which is told about every later change to the register.
+     *
+     * @param listener the listener
+     */
+    public void addListener(RegisterListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Removes a listener.
+     *
+     * @param listener the listener
+     */
+    public void removeListener(RegisterListener listener) {
+        listeners.remove(listener);
+    }
+
     /**
      * Adds an address to the register. Exception is thrown if the
      * register already contains the address.
@@ -40,11 +113,64 @@ public class AddressRegister {
      * @param address new address
      */
     public void addAddress(Address address) {
-        if (!addressRegister.contains(address)) {
-            addressRegister.add(address);
-        } else {
-            throw new IllegalArgumentException("Address already exist in register.");
+        RegisterEvent event;
+        writeLock.lock();
+        try {
+            if (insert(address) < 0) {
+                throw new IllegalArgumentException("Address already exist in register.");
+            }
+            indexRow(columns.size() - 1);
+            version++;
+            event = new RegisterEvent(RegisterEvent.Type.ADDED, address, null, 1, version);
+            fireLocked(event);
+        } finally {
+            writeLock.unlock();
+        }
+        fire(event);
+    }
+
+    /**
+     * Adds many addresses to the register in one pass. Duplicates, both
+     * against the register and within the collection, are skipped and
+     * counted instead of throwing. The storage is sized for all addresses
+     * up front and the indexes are updated once at the end.
+     *
+     * @param addresses the addresses to add
+     * @return summary of added and duplicate addresses
+     */
+    public ImportSummary addAll(Collection<Address> addresses) {
+        RegisterEvent event;
+        ImportSummary summary;
+        writeLock.lock();
+        try {
+            int firstRow = columns.size();
+            columns.ensureCapacity(firstRow + addresses.size());
+            identityIndex.ensureCapacity(columns.liveCount() + addresses.size());
+
+            int accepted = 0;
+            for (Address address : addresses) {
+                if (insert(address) >= 0) {
+                    accepted++;
+                }
+            }
+
+            // Only accepted addresses are stored, so the new rows are all rows after firstRow.
+            for (int row = firstRow; row < columns.size(); row++) {
+                indexRow(row);
+            }
+            version++;
+            event = new RegisterEvent(RegisterEvent.Type.BULK_ADDED, null, null, accepted, version);
+            summary = new ImportSummary(accepted, addresses.size() - accepted);
+            if (accepted > 0) {
+                fireLocked(event);
+            }
+        } finally {
+            writeLock.unlock();
         }
+        if (summary.getAccepted() > 0) {
+            fire(event);
+        }
+        return summary;
     }
 
     /**
@@ -54,11 +180,140 @@ public class AddressRegister {
      * @param address
      */
     public void removeAddress(Address address) {
-        if (addressRegister.contains(address)) {
-            addressRegister.remove(address);
-        } else {
-            throw new IllegalArgumentException("Selected Address does not exist.");
+        RegisterEvent event;
+        writeLock.lock();
+        try {
+            int row = find(address);
+            if (row < 0) {
+                throw new IllegalArgumentException("Selected Address does not exist.");
+            }
+            delete(row);
+            version++;
+            event = new RegisterEvent(RegisterEvent.Type.REMOVED, address, null, 1, version);
+            fireLocked(event);
+        } finally {
+            writeLock.unlock();
+        }
+        fire(event);
+    }
+
+    /**
+     * Replaces an address with another, as one change. Exception is thrown
+     * if the register does not contain the address to be replaced, or
+     * already contains the new address. The new address is placed last.
+     *
+     * @param address the address to be replaced
+     * @param replacement the new address
+     */
+    public void replaceAddress(Address address, Address replacement) {
+        RegisterEvent event;
+        writeLock.lock();
+        try {
+            int row = find(address);
+            if (row < 0) {
+                throw new IllegalArgumentException("Selected Address does not exist.");
+            }
+            if (replacement.equals(address)) {
+                return;
+            }
+            if (find(replacement) >= 0) {
+                throw new IllegalArgumentException("Address already exist in register.");
+            }
+            delete(row);
+            insert(replacement);
+            indexRow(columns.size() - 1);
+            version++;
+            event = new RegisterEvent(RegisterEvent.Type.REPLACED, replacement, address, 1, version);
+            fireLocked(event);
+        } finally {
+            writeLock.unlock();
         }
+        fire(event);
+    }
+
+    /**
+     * Searches for addresses where a field starts with the term.
+     * Names are compared in upper case, and category must be
+     * equal to the first character of the term.
+     * Unlike the searchBy methods the result is only returned,
+     * so several threads can search at the same time.
+     *
+     * @param field the field searched in
+     * @param term the start of the field value
+     * @return the matching addresses in insertion order
+     */
+    public SearchResult search(AddressField field, String term) {
+        return query(AddressQuery.field(field, term));
+    }
+
+    /**
+     * Runs a query with one or more field predicates. Conjunctions start
+     * from the predicate with the fewest matches in the field indexes.
+     * The result is cached, and is used again for the same query until
+     * the register changes. A search by one field where the term extends
+     * the last term searched by in that field, such as "001" after "00",
+     * only checks the addresses found by the last search.
+     * A query on a thread that is interrupted stops early, and its
+     * result is not cached.
+     *
+     * @param query the query
+     * @return the matching addresses in insertion order
+     * @throws java.util.concurrent.CancellationException if the thread is interrupted
+     */
+    public SearchResult query(AddressQuery query) {
+        readLock.lock();
+        try {
+            SearchResult result = searchCache.get(query, version);
+            if (result == null) {
+                result = refine(query);
+                if (result == null) {
+                    result = result(planner().run(query));
+                }
+                searchCache.put(query, result);
+            }
+            if (query instanceof AddressQuery.FieldQuery) {
+                AddressQuery.FieldQuery fieldQuery = (AddressQuery.FieldQuery) query;
+                lastSearches.put(fieldQuery.getField(), new LastSearch(fieldQuery.getTerm(), result));
+            }
+            return result;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * @return number of queries answered from the search cache
+     */
+    public long getSearchCacheHits() {
+        return searchCache.getHits();
+    }
+
+    /**
+     * @return number of queries that were not in the search cache, or were out of date
+     */
+    public long getSearchCacheMisses() {
+        return searchCache.getMisses();
+    }
+
+    /**
+     * Sets the most query results kept in the search cache.
+     *
+     * @param capacity number of results, 0 turns the cache off
+     */
+    public void setSearchCacheCapacity(int capacity) {
+        searchCache.setCapacity(capacity);
+    }
+
+    /**
+     * Method for searching for addresses with a query in text, for
+     * example "zip:50 AND category:P". All addresses matching the
+     * query will be added to the filteredAddressRegister.
+     *
+     * @param query the query text, see AddressQuery
+     * @throws IllegalArgumentException if the text is not a valid query
+     */
+    public void searchByQuery(String query) {
+        filteredAddressRegister = query(AddressQuery.parse(query));
     }
 
     /**
@@ -69,8 +324,7 @@ public class AddressRegister {
      * @param zipCode the zipcode searched with.
      */
     public void searchByZipCode(String zipCode) {
-        filteredAddressRegister = (ArrayList<Address>) addressRegister.stream().
-                filter(m -> m.getZipCode().startsWith(zipCode)).collect(Collectors.toList());
+        filteredAddressRegister = search(AddressField.ZIP_CODE, zipCode);
     }
 
     /**
@@ -81,38 +335,201 @@ public class AddressRegister {
      * @param postal the postal searched with.
      */
     public void searchByPostal(String postal) {
-        filteredAddressRegister = (ArrayList<Address>) addressRegister.stream().
-                filter(m -> m.getPostal().startsWith(postal.toUpperCase())).collect(Collectors.toList());
+        filteredAddressRegister = search(AddressField.POSTAL, postal);
     }
 
     public void searchByMunicipalCode(String municipalCode) {
-        filteredAddressRegister = (ArrayList<Address>) addressRegister.stream().
-                filter(m -> m.getMunicipalCode().startsWith(municipalCode)).collect(Collectors.toList());
+        filteredAddressRegister = search(AddressField.MUNICIPAL_CODE, municipalCode);
     }
 
     public void searchByMunicipalityName(String municipalityName) {
-        filteredAddressRegister = (ArrayList<Address>) addressRegister.stream().
-                filter(m -> m.getMunicipalityName().startsWith(municipalityName.toUpperCase())).collect(Collectors.toList());
-
+        filteredAddressRegister = search(AddressField.MUNICIPALITY_NAME, municipalityName);
     }
 
     public void searchByCategory(char category) {
-        filteredAddressRegister = (ArrayList<Address>) addressRegister.stream().
-                filter(m -> m.getCategory() == category).collect(Collectors.toList());
+        filteredAddressRegister = search(AddressField.CATEGORY, String.valueOf(category));
+    }
 
+    /**
+     * Searches for addresses where the postal or municipality name is
+     * within a number of edits (insertions, deletions or substitutions
+     * of a letter) of the term. Case is ignored, and Æ, Ø and Å are
+     * the same as AE, OE and AA. The addresses with the closest names
+     * come first, and addresses with the same name are in insertion order.
+     *
+     * @param field POSTAL or MUNICIPALITY_NAME
+     * @param term the name, possibly misspelled
+     * @param maxDistance the highest number of edits allowed
+     * @return the matching addresses, best match first
+     */
+    public SearchResult fuzzySearch(AddressField field, String term, int maxDistance) {
+        requireNameField(field, "Fuzzy search");
+        FuzzyNameIndex names = field == AddressField.POSTAL ? postalNames : municipalityNames;
+        readLock.lock();
+        try {
+            // The rows of each name are added in rank order, so the closest names come first.
+            IntList rows = new IntList();
+            for (FuzzyNameIndex.Match match : names.search(term, maxDistance)) {
+                addLiveRows(field, match.getName(), rows);
+            }
+            return result(rows);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Method for searching for addresses with a misspelled postal or
+     * municipality name. All addresses with a name within maxDistance
+     * edits of the term will be added to the filteredAddressRegister,
+     * best match first. See fuzzySearch.
+     *
+     * @param field POSTAL or MUNICIPALITY_NAME
+     * @param term the name searched with
+     * @param maxDistance the highest number of edits allowed
+     */
+    public void searchFuzzy(AddressField field, String term, int maxDistance) {
+        filteredAddressRegister = fuzzySearch(field, term, maxDistance);
     }
 
     /**
-     * @return All addresses in the register
+     * Searches for addresses where the postal or municipality name
+     * contains the term anywhere, for example "VIK" in "LARVIK" and
+     * "SANDVIKA". Case is ignored.
+     *
+     * @param field POSTAL or MUNICIPALITY_NAME
+     * @param term the part of the name
+     * @return the matching addresses in insertion order
+     */
+    public SearchResult infixSearch(AddressField field, String term) {
+        requireNameField(field, "Infix search");
+        TrigramIndex trigrams = field == AddressField.POSTAL ? postalTrigrams : municipalityTrigrams;
+        readLock.lock();
+        try {
+            IntList rows = new IntList();
+            for (String name : trigrams.search(term)) {
+                addLiveRows(field, name, rows);
+            }
+            rows.sort();
+            return result(rows);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Method for searching for addresses by a part of the postal or
+     * municipality name. All addresses with a name containing the term
+     * will be added to the filteredAddressRegister. See infixSearch.
+     *
+     * @param field POSTAL or MUNICIPALITY_NAME
+     * @param term the part of the name searched with
+     */
+    public void searchInfix(AddressField field, String term) {
+        filteredAddressRegister = infixSearch(field, term);
+    }
+
+    /**
+     * Suggests postal or municipality names starting with a prefix,
+     * for example while the user types in a search field. The names
+     * with the most addresses come first.
+     *
+     * @param field POSTAL or MUNICIPALITY_NAME
+     * @param prefix the start of the name, in any case
+     * @param limit the most names returned
+     * @return the names, in upper case
+     */
+    public List<String> suggestNames(AddressField field, String prefix, int limit) {
+        requireNameField(field, "Suggestions");
+        if (limit <= 0) {
+            return new ArrayList<>();
+        }
+        readLock.lock();
+        try {
+            return indexes.get(field).mostCommon(field.normalize(prefix), limit, columns::isLive);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Counts the addresses in a category, from the bitmap index.
+     *
+     * @param category the category
+     * @return number of addresses in the category
+     */
+    public int countByCategory(char category) {
+        readLock.lock();
+        try {
+            return categoryBitmaps.count(category & 0xFF);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * @return All addresses in the register, as a snapshot
+     * which is not changed by later changes to the register
      */
     public Collection<Address> getAddresses() {
-        return addressRegister;
+        return snapshot();
+    }
+
+    /**
+     * Takes a snapshot of the register. The snapshot is taken in
+     * constant time and can be read while others change the register.
+     *
+     * @return all addresses in the register as they are now
+     */
+    public RegisterSnapshot snapshot() {
+        readLock.lock();
+        try {
+            return new RegisterSnapshot(columns.snapshot(), dictionary.snapshot(), version);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Checks if the register contains an address.
+     *
+     * @param address the address
+     * @return true if the address is in the register
+     */
+    public boolean contains(Address address) {
+        readLock.lock();
+        try {
+            return find(address) >= 0;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Returns all addresses in insertion order as a search result, so
+     * only the addresses that are read are created.
+     *
+     * @return all addresses in the register
+     */
+    public SearchResult allAddresses() {
+        readLock.lock();
+        try {
+            IntList rows = new IntList(columns.liveCount());
+            for (int row = 0; row < columns.size(); row++) {
+                if (columns.isLive(row)) {
+                    rows.add(row);
+                }
+            }
+            return result(rows);
+        } finally {
+            readLock.unlock();
+        }
     }
 
     /**
      * @return all addresses from search.
      */
-    public Collection<Address> getAddressesBySearch() {
+    public SearchResult getAddressesBySearch() {
         return filteredAddressRegister;
     }
 
@@ -120,6 +537,251 @@ public class AddressRegister {
      * Removes all addresses from the register.
      */
     public void clearRegister() {
-        addressRegister.clear();
+        RegisterEvent event;
+        writeLock.lock();
+        try {
+            dictionary.clear();
+            columns = new AddressColumns(16);
+            identityIndex = new RowHashIndex(columns, 16);
+            clearIndexes();
+            searchCache.clear();
+            version++;
+            event = new RegisterEvent(RegisterEvent.Type.CLEARED, null, null, 0, version);
+            fireLocked(event);
+        } finally {
+            writeLock.unlock();
+        }
+        fire(event);
+    }
+
+    /**
+     * Tells all listeners about a change while the write lock is held,
+     * so they see the changes in the order they were made.
+     *
+     * @param event the change
+     */
+    private void fireLocked(RegisterEvent event) {
+        for (RegisterListener listener : listeners) {
+            listener.registerChangedLocked(event);
+        }
+    }
+
+    /**
+     * Tells all listeners about a change. Must be called after
+     * the write lock is released, so listeners can read the register.
+     *
+     * @param event the change
+     */
+    private void fire(RegisterEvent event) {
+        for (RegisterListener listener : listeners) {
+            listener.registerChanged(event);
+        }
+    }
+
+    /**
+     * Stores an address in a new row, unless it is already in the register.
+     * The field indexes are not updated.
+     *
+     * @param address the address
+     * @return the new row, or -1 if the address is a duplicate
+     */
+    private int insert(Address address) {
+        int zipCode = Integer.parseInt(address.getZipCode());
+        int municipalCode = Integer.parseInt(address.getMunicipalCode());
+        int postalId = dictionary.idOf(address.getPostal());
+        int municipalityNameId = dictionary.idOf(address.getMunicipalityName());
+        if (identityIndex.find(zipCode, municipalCode, postalId, municipalityNameId, address.getCategory()) >= 0) {
+            return -1;
+        }
+        int row = columns.append(zipCode, municipalCode, postalId, municipalityNameId, address.getCategory());
+        identityIndex.insert(row);
+        return row;
+    }
+
+    /**
+     * Removes a row from the identity index and the bitmap indexes and
+     * marks it as deleted. Compacts the register when more than half
+     * of the rows are deleted, which changes the row numbers.
+     *
+     * @param row row number of a live row
+     */
+    private void delete(int row) {
+        identityIndex.remove(row);
+        categoryBitmaps.remove(columns.category(row) & 0xFF, row);
+        zipDigitBitmaps.remove(columns.zipCode(row) / 1000, row);
+        columns.delete(row);
+
+        // Rebuilds the storage when more than half of the rows are deleted.
+        if (columns.deletedCount() >= MIN_COMPACT && columns.deletedCount() > columns.liveCount()) {
+            compact();
+        }
+    }
+
+    /**
+     * Finds the row of an address.
+     *
+     * @param address the address
+     * @return row number, or -1 if the address is not in the register
+     */
+    private int find(Address address) {
+        int postalId = dictionary.find(address.getPostal());
+        int municipalityNameId = dictionary.find(address.getMunicipalityName());
+        if (postalId < 0 || municipalityNameId < 0) {
+            return -1;
+        }
+        return identityIndex.find(Integer.parseInt(address.getZipCode()), Integer.parseInt(address.getMunicipalCode()),
+                postalId, municipalityNameId, address.getCategory());
+    }
+
+    /**
+     * Adds a row to the index of each field.
+     *
+     * @param row row number
+     */
+    private void indexRow(int row) {
+        indexes.get(AddressField.ZIP_CODE).add(Address.formatCode(columns.zipCode(row), "Zip code"), row);
+        indexes.get(AddressField.POSTAL).add(dictionary.name(columns.postalId(row)), row);
+        indexes.get(AddressField.MUNICIPAL_CODE).add(Address.formatCode(columns.municipalCode(row), "Municipal code"), row);
+        indexes.get(AddressField.MUNICIPALITY_NAME).add(dictionary.name(columns.municipalityNameId(row)), row);
+        categoryBitmaps.add(columns.category(row) & 0xFF, row);
+        zipDigitBitmaps.add(columns.zipCode(row) / 1000, row);
+        postalNames.add(dictionary.name(columns.postalId(row)));
+        municipalityNames.add(dictionary.name(columns.municipalityNameId(row)));
+        postalTrigrams.add(dictionary.name(columns.postalId(row)));
+        municipalityTrigrams.add(dictionary.name(columns.municipalityNameId(row)));
+    }
+
+    /**
+     * Removes all rows from the field indexes, the bitmap indexes and the name indexes.
+     */
+    private void clearIndexes() {
+        for (FieldIndex index : indexes.values()) {
+            index.clear();
+        }
+        categoryBitmaps.clear();
+        zipDigitBitmaps.clear();
+        postalNames.clear();
+        municipalityNames.clear();
+        postalTrigrams.clear();
+        municipalityTrigrams.clear();
+    }
+
+    /**
+     * Checks that a field is one of the name fields.
+     *
+     * @param field the field
+     * @param search name of the search, used in the exception
+     * @throws IllegalArgumentException if the field is not POSTAL or MUNICIPALITY_NAME
+     */
+    private static void requireNameField(AddressField field, String search) {
+        if (field != AddressField.POSTAL && field != AddressField.MUNICIPALITY_NAME) {
+            throw new IllegalArgumentException(search + " is only possible by postal or municipality name.");
+        }
+    }
+
+    /**
+     * Adds the live rows with a name to a list, in insertion order.
+     *
+     * @param field POSTAL or MUNICIPALITY_NAME
+     * @param name the name, as stored in the register
+     * @param rows the list the rows are added to
+     */
+    private void addLiveRows(AddressField field, String name, IntList rows) {
+        IntList named = indexes.get(field).searchExact(name);
+        for (int i = 0; i < named.size(); i++) {
+            if (columns.isLive(named.get(i))) {
+                rows.add(named.get(i));
+            }
+        }
+    }
+
+    /**
+     * @return a planner for running queries on the register as it is now
+     */
+    private QueryPlanner planner() {
+        return new QueryPlanner(columns, dictionary, indexes, categoryBitmaps, zipDigitBitmaps);
+    }
+
+    /**
+     * Answers a search by one field from the last search by the same
+     * field, if the new term starts with the last term and the register
+     * has not changed since. Every address matching the new term then
+     * also matched the last term, so only those addresses are checked.
+     *
+     * @param query the query
+     * @return the result, or null if the last search can not be used
+     */
+    private SearchResult refine(AddressQuery query) {
+        if (!(query instanceof AddressQuery.FieldQuery)) {
+            return null;
+        }
+        AddressQuery.FieldQuery fieldQuery = (AddressQuery.FieldQuery) query;
+        LastSearch last = lastSearches.get(fieldQuery.getField());
+        if (last == null || last.result.getVersion() != version || !fieldQuery.getTerm().startsWith(last.term)) {
+            return null;
+        }
+        QueryPlanner planner = planner();
+        IntList rows = new IntList(last.result.size());
+        for (int i = 0; i < last.result.size(); i++) {
+            planner.checkCancelled(i);
+            int row = last.result.row(i);
+            if (planner.matches(fieldQuery.getField(), fieldQuery.getTerm(), row)) {
+                rows.add(row);
+            }
+        }
+        refinements.incrementAndGet();
+        return result(rows);
+    }
+
+    /**
+     * @return number of searches answered by refining the last search
+     */
+    long getRefinements() {
+        return refinements.get();
+    }
+
+    /**
+     * Creates a search result of the rows, reading from a snapshot
+     * of the register as it is now.
+     *
+     * @param rows row numbers of live rows, in result order
+     * @return the search result
+     */
+    private SearchResult result(IntList rows) {
+        return new SearchResult(columns.snapshot(), dictionary.snapshot(), rows.toArray(), version);
+    }
+
+    /**
+     * Copies the live rows to new columns, so the deleted rows
+     * no longer take up memory, and rebuilds the indexes.
+     */
+    private void compact() {
+        AddressColumns compacted = new AddressColumns(columns.liveCount());
+        for (int row = 0; row < columns.size(); row++) {
+            if (columns.isLive(row)) {
+                compacted.append(columns.zipCode(row), columns.municipalCode(row), columns.postalId(row),
+                        columns.municipalityNameId(row), columns.category(row));
+            }
+        }
+        columns = compacted;
+        identityIndex = new RowHashIndex(columns, columns.size());
+        clearIndexes();
+        for (int row = 0; row < columns.size(); row++) {
+            identityIndex.insert(row);
+            indexRow(row);
+        }
+    }
+
+    /**
+     * The last search by a field, with its normalized term.
+     */
+    private static class LastSearch {
+        private final String term; // Normalized term of the search
+        private final SearchResult result; // Result of the search
+
+        LastSearch(String term, SearchResult result) {
+            this.term = term;
+            this.result = result;
+        }
     }
 }
@@ -0,0 +1,81 @@
+package mappe.del3.addressregister;
+
+/**
+ * Bitmap index over a field with few distinct values, such as the
+ * category or the first digit of the zip code. Each value has a
+ * RowBitmap with the live rows that have the value.
+ *
+ * Unlike FieldIndex, rows are removed from the bitmaps when an address
+ * is removed, so the number of rows with a value is exact and is
+ * counted in O(1).
+ *
+ * @author Sindre Glomnes
+ * @version 2021-05-14
+ */
+class BitmapIndex {
+    private final RowBitmap[] bitmaps; // Rows of each value, null if no row has had the value
+
+    /**
+     * Constructor
+     *
+     * @param values number of possible values, the values are 0 to values - 1
+     */
+    BitmapIndex(int values) {
+        bitmaps = new RowBitmap[values];
+    }
+
+    /**
+     * Adds a row to the bitmap of a value.
+     *
+     * @param value the field value of the row
+     * @param row row number
+     */
+    void add(int value, int row) {
+        if (bitmaps[value] == null) {
+            bitmaps[value] = new RowBitmap();
+        }
+        bitmaps[value].add(row);
+    }
+
+    /**
+     * Removes a row from the bitmap of a value.
+     *
+     * @param value the field value of the row
+     * @param row row number
+     */
+    void remove(int value, int row) {
+        if (bitmaps[value] != null) {
+            bitmaps[value].remove(row);
+        }
+    }
+
+    /**
+     * Returns the rows with a value. The bitmap must only be read.
+     *
+     * @param value the field value
+     * @return the live rows with the value
+     */
+    RowBitmap get(int value) {
+        if (value < 0 || value >= bitmaps.length || bitmaps[value] == null) {
+            return new RowBitmap();
+        }
+        return bitmaps[value];
+    }
+
+    /**
+     * @param value the field value
+     * @return number of live rows with the value
+     */
+    int count(int value) {
+        return get(value).cardinality();
+    }
+
+    /**
+     * Removes all rows from the index.
+     */
+    void clear() {
+        for (int i = 0; i < bitmaps.length; i++) {
+            bitmaps[i] = null;
+        }
+    }
+}
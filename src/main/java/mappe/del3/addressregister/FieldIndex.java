@@ -0,0 +1,132 @@
+package mappe.del3.addressregister;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.function.IntPredicate;
+
+/**
+ * Sorted index over one field of the addresses in the register.
+ * Row numbers are grouped by the normalized field value in a TreeMap,
+ * so a prefix search is a range lookup in O(log n + k) instead
+ * of a scan of the whole register.
+ *
+ * Rows are never removed from the index one by one. A removed address
+ * is marked as deleted in AddressColumns, and the register skips deleted
+ * rows in the result. The index is rebuilt when the register is compacted.
+ *
+ * @author Sindre Glomnes
+ * @version 2021-05-14
+ */
+class FieldIndex {
+    private final TreeMap<String, IntList> index = new TreeMap<>(); // Field value -> row numbers
+
+    /**
+     * Adds a row to the index.
+     *
+     * @param key the normalized field value of the row
+     * @param row row number
+     */
+    void add(String key, int row) {
+        index.computeIfAbsent(key, k -> new IntList()).add(row);
+    }
+
+    /**
+     * Removes all rows from the index.
+     */
+    void clear() {
+        index.clear();
+    }
+
+    /**
+     * Returns all rows where the field starts with the prefix.
+     * The prefix must already be normalized (upper case for names).
+     * All such keys are between the prefix and the prefix followed
+     * by the highest possible character.
+     *
+     * @param prefix start of the field value
+     * @return row numbers, possibly including deleted rows
+     */
+    IntList searchPrefix(String prefix) {
+        IntList result = new IntList();
+        for (IntList rows : index.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values()) {
+            result.addAll(rows);
+        }
+        return result;
+    }
+
+    /**
+     * Returns all rows where the field is equal to the key.
+     *
+     * @param key the normalized field value
+     * @return row numbers in ascending order, possibly including deleted rows
+     */
+    IntList searchExact(String key) {
+        IntList rows = index.get(key);
+        IntList result = new IntList(rows == null ? 1 : rows.size());
+        if (rows != null) {
+            result.addAll(rows);
+        }
+        return result;
+    }
+
+    /**
+     * Counts the rows where the field starts with the prefix, without
+     * copying them. Used by the query planner to estimate selectivity.
+     *
+     * @param prefix start of the field value
+     * @return number of rows, possibly including deleted rows
+     */
+    int countPrefix(String prefix) {
+        int count = 0;
+        for (IntList rows : index.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values()) {
+            count += rows.size();
+        }
+        return count;
+    }
+
+    /**
+     * Finds the field values starting with the prefix that have the most
+     * rows, for suggestions while the user types. Values where every row
+     * is deleted are skipped.
+     *
+     * @param prefix start of the field value
+     * @param limit the most values returned
+     * @param live tells if a row is not deleted
+     * @return the values with most rows first, then in alphabetical order
+     */
+    List<String> mostCommon(String prefix, int limit, IntPredicate live) {
+        Comparator<Map.Entry<String, IntList>> order = Comparator
+                .comparingInt((Map.Entry<String, IntList> e) -> e.getValue().size()).reversed()
+                .thenComparing(Map.Entry::getKey);
+        // Keeps the best values found so far, with the worst of them first.
+        PriorityQueue<Map.Entry<String, IntList>> best = new PriorityQueue<>(limit + 1, order.reversed());
+        for (Map.Entry<String, IntList> entry : index.subMap(prefix, true, prefix + Character.MAX_VALUE, false).entrySet()) {
+            if (hasLiveRow(entry.getValue(), live)) {
+                best.add(entry);
+                if (best.size() > limit) {
+                    best.poll();
+                }
+            }
+        }
+        ArrayList<Map.Entry<String, IntList>> sorted = new ArrayList<>(best);
+        sorted.sort(order);
+        List<String> result = new ArrayList<>(sorted.size());
+        for (Map.Entry<String, IntList> entry : sorted) {
+            result.add(entry.getKey());
+        }
+        return result;
+    }
+
+    private static boolean hasLiveRow(IntList rows, IntPredicate live) {
+        for (int i = 0; i < rows.size(); i++) {
+            if (live.test(rows.get(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
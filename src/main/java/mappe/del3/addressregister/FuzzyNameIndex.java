@@ -0,0 +1,232 @@
+package mappe.del3.addressregister;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Index for typo-tolerant search over the distinct names of one field.
+ * The names are stored in a BK-tree keyed by the Levenshtein distance
+ * between folded names. A node only has to be visited if its distance to
+ * the parent is within the max distance of the distance between the term
+ * and the parent, so a search with a small max distance only compares the
+ * term with a small part of the names.
+ *
+ * Names are folded before they are compared: they are put in upper case,
+ * and Æ, Ø and Å are written as AE, OE and AA. "Baerum" therefore
+ * matches "BÆRUM" with distance 0.
+ *
+ * Names are only added. The register rebuilds the index when it is
+ * cleared or compacted.
+ *
+ * @author Sindre Glomnes
+ * @version 2021-05-14
+ */
+class FuzzyNameIndex {
+    private final HashSet<String> names = new HashSet<>(); // Names in the index
+    private Node root; // Root of the BK-tree, or null if the index is empty
+
+    /**
+     * Adds a name to the index, unless it is already there.
+     *
+     * @param name the name, in upper case
+     */
+    void add(String name) {
+        if (!names.add(name)) {
+            return;
+        }
+        String folded = fold(name);
+        if (root == null) {
+            root = new Node(folded, name);
+            return;
+        }
+        Node node = root;
+        while (true) {
+            int distance = distance(folded, node.folded);
+            if (distance == 0) {
+                node.names.add(name);
+                return;
+            }
+            Node child = node.child(distance);
+            if (child == null) {
+                node.addChild(distance, new Node(folded, name));
+                return;
+            }
+            node = child;
+        }
+    }
+
+    /**
+     * Removes all names from the index.
+     */
+    void clear() {
+        names.clear();
+        root = null;
+    }
+
+    /**
+     * Finds the names within a max edit distance of the term,
+     * closest first and then in alphabetical order.
+     *
+     * @param term the term, in any case
+     * @param maxDistance the highest number of edits allowed
+     * @return the matching names with their distance
+     */
+    List<Match> search(String term, int maxDistance) {
+        if (maxDistance < 0) {
+            throw new IllegalArgumentException("Max distance can not be negative");
+        }
+        ArrayList<Match> result = new ArrayList<>();
+        if (root == null) {
+            return result;
+        }
+        char[] folded = fold(term).toCharArray();
+        int[][] rows = new int[2][folded.length + 1]; // Reused by every distance computation of the search
+        ArrayList<Node> stack = new ArrayList<>();
+        stack.add(root);
+        while (!stack.isEmpty()) {
+            Node node = stack.remove(stack.size() - 1);
+            int distance = distance(node.folded, folded, rows);
+            if (distance <= maxDistance) {
+                for (String name : node.names) {
+                    result.add(new Match(name, distance));
+                }
+            }
+            // By the triangle inequality, only children this far from the node can match.
+            for (int i = 0; i < node.childCount; i++) {
+                if (Math.abs(node.distances[i] - distance) <= maxDistance) {
+                    stack.add(node.children[i]);
+                }
+            }
+        }
+        result.sort((a, b) -> a.distance != b.distance
+                ? Integer.compare(a.distance, b.distance) : a.name.compareTo(b.name));
+        return result;
+    }
+
+    /**
+     * Folds a name for comparison: upper case, with Æ, Ø and Å
+     * written as AE, OE and AA.
+     *
+     * @param name the name
+     * @return the folded name
+     */
+    static String fold(String name) {
+        String upper = name.toUpperCase();
+        StringBuilder sb = null;
+        for (int i = 0; i < upper.length(); i++) {
+            char c = upper.charAt(i);
+            String replacement = c == 'Æ' ? "AE" : c == 'Ø' ? "OE" : c == 'Å' ? "AA" : null;
+            if (replacement != null && sb == null) {
+                sb = new StringBuilder(upper.length() + 4).append(upper, 0, i);
+            }
+            if (sb != null) {
+                if (replacement != null) {
+                    sb.append(replacement);
+                } else {
+                    sb.append(c);
+                }
+            }
+        }
+        return sb == null ? upper : sb.toString();
+    }
+
+    /**
+     * Computes the Levenshtein distance between two strings: the fewest
+     * insertions, deletions and substitutions that turn one into the other.
+     *
+     * @param a first string
+     * @param b second string
+     * @return the distance
+     */
+    static int distance(String a, String b) {
+        return distance(a, b.toCharArray(), new int[2][b.length() + 1]);
+    }
+
+    /**
+     * Computes the Levenshtein distance with two rows of the distance
+     * table given by the caller, so a search does not allocate for
+     * every name it compares with.
+     *
+     * @param a first string
+     * @param b second string
+     * @param rows two arrays of at least b.length + 1 values
+     * @return the distance
+     */
+    private static int distance(String a, char[] b, int[][] rows) {
+        int[] previous = rows[0];
+        int[] current = rows[1];
+        for (int j = 0; j <= b.length; j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            char c = a.charAt(i - 1);
+            for (int j = 1; j <= b.length; j++) {
+                int substitution = previous[j - 1] + (c == b[j - 1] ? 0 : 1);
+                current[j] = Math.min(substitution, Math.min(previous[j], current[j - 1]) + 1);
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[b.length];
+    }
+
+    /**
+     * A name found by a search, with its distance to the term.
+     */
+    static class Match {
+        private final String name; // The name, as stored in the register
+        private final int distance; // Edits between the folded name and the folded term
+
+        Match(String name, int distance) {
+            this.name = name;
+            this.distance = distance;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        int getDistance() {
+            return distance;
+        }
+    }
+
+    /**
+     * Node of the BK-tree. All names in a node have the same folded name,
+     * and each child is at a different distance from the node.
+     */
+    private static class Node {
+        private final String folded; // The folded name
+        private final ArrayList<String> names = new ArrayList<>(1); // Names with this folded name
+        private int[] distances = new int[2]; // Distance from this node to each child
+        private Node[] children = new Node[2]; // The children
+        private int childCount; // Number of children
+
+        Node(String folded, String name) {
+            this.folded = folded;
+            names.add(name);
+        }
+
+        Node child(int distance) {
+            for (int i = 0; i < childCount; i++) {
+                if (distances[i] == distance) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        void addChild(int distance, Node child) {
+            if (childCount == children.length) {
+                distances = Arrays.copyOf(distances, childCount * 2);
+                children = Arrays.copyOf(children, childCount * 2);
+            }
+            distances[childCount] = distance;
+            children[childCount++] = child;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package mappe.del3.addressregister;
+
+/**
+ * Summary of a bulk add to the register. Tells how many addresses
+ * were added and how many were skipped as duplicates.
+ *
+ * @author Sindre Glomnes
+ * @version 2021-05-14
+ */
+public class ImportSummary {
+    private final int accepted; // Number of addresses added to the register
+    private final int duplicates; // Number of addresses already in the register
+
+    /**
+     * Constructor. Creates an instance of ImportSummary
+     *
+     * @param accepted number of addresses added
+     * @param duplicates number of duplicate addresses skipped
+     */
+    public ImportSummary(int accepted, int duplicates) {
+        this.accepted = accepted;
+        this.duplicates = duplicates;
+    }
+
+    // Get methods
+    public int getAccepted() {
+        return accepted;
+    }
+
+    public int getDuplicates() {
+        return duplicates;
+    }
+
+    /**
+     * String with the number of added and duplicate addresses.
+     * @return summary String.
+     */
+    @Override
+    public String toString() {
+        return accepted + " added, " + duplicates + " duplicates";
+    }
+}
@@ -0,0 +1,85 @@
+package mappe.del3.addressregister;
+
+import java.util.Arrays;
+
+/**
+ * A growable list of primitive ints. Used for lists of row numbers,
+ * which would cost four times as much memory as a list of Integers.
+ *
+ * @author Sindre Glomnes
+ * @version 2021-05-14
+ */
+class IntList {
+    private int[] values; // The values, only the first size are used
+    private int size; // Number of values in the list
+
+    /**
+     * Constructor. Creates an empty list.
+     */
+    IntList() {
+        this(8);
+    }
+
+    /**
+     * Constructor. Creates an empty list with room for capacity values.
+     *
+     * @param capacity initial capacity
+     */
+    IntList(int capacity) {
+        values = new int[Math.max(capacity, 1)];
+    }
+
+    /**
+     * Adds a value to the end of the list.
+     *
+     * @param value the value
+     */
+    void add(int value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size + (size >> 1) + 1);
+        }
+        values[size++] = value;
+    }
+
+    /**
+     * Adds all values of another list to the end of this list.
+     *
+     * @param other the other list
+     */
+    void addAll(IntList other) {
+        if (size + other.size > values.length) {
+            values = Arrays.copyOf(values, Math.max(size + other.size, size + (size >> 1) + 1));
+        }
+        System.arraycopy(other.values, 0, values, size, other.size);
+        size += other.size;
+    }
+
+    /**
+     * @param index position in the list
+     * @return the value at the position
+     */
+    int get(int index) {
+        return values[index];
+    }
+
+    /**
+     * @return number of values in the list
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Sorts the values in ascending order.
+     */
+    void sort() {
+        Arrays.sort(values, 0, size);
+    }
+
+    /**
+     * @return a copy of the values as an array
+     */
+    int[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+}
@@ -0,0 +1,106 @@
+package mappe.del3.addressregister;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Dictionary of the distinct postal and municipality names in the register.
+ * Each name is stored once and given an int id, so the register only has to
+ * store the id for each address.
+ *
+ * Names are only appended, so a snapshot can share the name array:
+ * new names are written after the end of the snapshot, and growing
+ * or clearing the dictionary makes a new array.
+ *
+ * @author Sindre Glomnes
+ * @version 2021-05-14
+ */
+class NameDictionary {
+    private final HashMap<String, Integer> ids; // Name -> id, null in a snapshot
+    private String[] names = new String[64]; // Id -> name
+    private int size; // Number of names
+
+    /**
+     * Constructor. Creates an empty dictionary.
+     */
+    NameDictionary() {
+        ids = new HashMap<>();
+    }
+
+    /**
+     * Constructor used by snapshot. Shares the name array.
+     *
+     * @param names the name array
+     * @param size number of names
+     */
+    private NameDictionary(String[] names, int size) {
+        this.ids = null;
+        this.names = names;
+        this.size = size;
+    }
+
+    /**
+     * Returns a dictionary with the names as they are now. The snapshot
+     * can only be used to look up names by id.
+     *
+     * @return the snapshot
+     */
+    NameDictionary snapshot() {
+        return new NameDictionary(names, size);
+    }
+
+    /**
+     * Returns the id of a name. The name is added if it is new.
+     *
+     * @param name the name
+     * @return id of the name
+     */
+    int idOf(String name) {
+        Integer id = ids.get(name);
+        if (id == null) {
+            if (size == names.length) {
+                names = Arrays.copyOf(names, size * 2);
+            }
+            id = size;
+            names[size++] = name;
+            ids.put(name, id);
+        }
+        return id;
+    }
+
+    /**
+     * Returns the id of a name without adding it.
+     *
+     * @param name the name
+     * @return id of the name, or -1 if the name is not in the dictionary
+     */
+    int find(String name) {
+        Integer id = ids.get(name);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * @param id id of a name
+     * @return the name
+     */
+    String name(int id) {
+        return names[id];
+    }
+
+    /**
+     * @return number of names in the dictionary
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Removes all names.
+     */
+    void clear() {
+        ids.clear();
+        // A new array, since snapshots may still use the old one.
+        names = new String[64];
+        size = 0;
+    }
+}
@@ -0,0 +1,162 @@
+package mappe.del3.addressregister;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses the text syntax of AddressQuery.
+ *
+ * A query is one or more field predicates, combined with AND and OR.
+ * AND binds tighter than OR, and parentheses can be used for grouping.
+ * A predicate is written field:term, where field is one of zip, postal,
+ * municipalcode, municipality or category. Terms with spaces are written
+ * in double quotes. Keywords and field names are not case sensitive.
+ *
+ * Examples: {@code zip:50 AND category:P},
+ * {@code (postal:"mo i rana" OR postal:bodø) AND category:G}
+ *
+ * @author Sindre Glomnes
+ * @version 2021-05-14
+ */
+class QueryParser {
+    private final List<String> tokens = new ArrayList<>(); // The query text split into tokens
+    private int position; // Next token to read
+
+    /**
+     * Constructor. Splits the text into tokens: parentheses, quoted
+     * terms and words. A colon ends a field name.
+     *
+     * @param text the query text
+     */
+    QueryParser(String text) {
+        int i = 0;
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '(' || c == ')' || c == ':') {
+                tokens.add(String.valueOf(c));
+                i++;
+            } else if (c == '"') {
+                int end = text.indexOf('"', i + 1);
+                if (end < 0) {
+                    throw new IllegalArgumentException("Missing \" at the end of the query");
+                }
+                // Quoted terms keep their quote, so they are never read as keywords.
+                tokens.add(text.substring(i, end));
+                i = end + 1;
+            } else {
+                int start = i;
+                while (i < text.length() && !Character.isWhitespace(text.charAt(i))
+                        && "():\"".indexOf(text.charAt(i)) < 0) {
+                    i++;
+                }
+                tokens.add(text.substring(start, i));
+            }
+        }
+    }
+
+    /**
+     * Parses the whole query.
+     *
+     * @return the query
+     * @throws IllegalArgumentException if the text is not a valid query
+     */
+    AddressQuery parse() {
+        if (tokens.isEmpty()) {
+            throw new IllegalArgumentException("The query is empty");
+        }
+        AddressQuery query = parseOr();
+        if (position < tokens.size()) {
+            throw new IllegalArgumentException("Unexpected '" + tokens.get(position) + "' in the query");
+        }
+        return query;
+    }
+
+    /**
+     * or := and (OR and)*
+     */
+    private AddressQuery parseOr() {
+        List<AddressQuery> parts = new ArrayList<>();
+        parts.add(parseAnd());
+        while (isKeyword("OR")) {
+            position++;
+            parts.add(parseAnd());
+        }
+        return parts.size() == 1 ? parts.get(0) : new AddressQuery.OrQuery(parts);
+    }
+
+    /**
+     * and := primary (AND primary)*
+     */
+    private AddressQuery parseAnd() {
+        List<AddressQuery> parts = new ArrayList<>();
+        parts.add(parsePrimary());
+        while (isKeyword("AND")) {
+            position++;
+            parts.add(parsePrimary());
+        }
+        return parts.size() == 1 ? parts.get(0) : new AddressQuery.AndQuery(parts);
+    }
+
+    /**
+     * primary := ( or ) | field : term
+     */
+    private AddressQuery parsePrimary() {
+        String token = next();
+        if (token.equals("(")) {
+            AddressQuery query = parseOr();
+            expect(")");
+            return query;
+        }
+        AddressField field = field(token);
+        expect(":");
+        String term = next();
+        if (term.startsWith("\"")) {
+            term = term.substring(1);
+        } else if (term.length() == 1 && "():".contains(term)) {
+            throw new IllegalArgumentException("Missing search term after " + token + ":");
+        }
+        return AddressQuery.field(field, term);
+    }
+
+    /**
+     * @param name a field name from the query
+     * @return the field with that name
+     */
+    private static AddressField field(String name) {
+        switch (name.toLowerCase()) {
+            case "zip":
+            case "zipcode":
+                return AddressField.ZIP_CODE;
+            case "postal":
+                return AddressField.POSTAL;
+            case "municipalcode":
+                return AddressField.MUNICIPAL_CODE;
+            case "municipality":
+            case "municipalityname":
+                return AddressField.MUNICIPALITY_NAME;
+            case "category":
+                return AddressField.CATEGORY;
+            default:
+                throw new IllegalArgumentException("Unknown field '" + name + "' in the query");
+        }
+    }
+
+    private boolean isKeyword(String keyword) {
+        return position < tokens.size() && tokens.get(position).equalsIgnoreCase(keyword);
+    }
+
+    private String next() {
+        if (position >= tokens.size()) {
+            throw new IllegalArgumentException("The query ends too early");
+        }
+        return tokens.get(position++);
+    }
+
+    private void expect(String token) {
+        if (!next().equals(token)) {
+            throw new IllegalArgumentException("Expected '" + token + "' in the query");
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package mappe.del3.addressregister;
+
+import java.util.EnumMap;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Gives queries access to the indexes and columns of the register while
+ * a query runs. The register holds its read lock for as long as the
+ * planner is used.
+ *
+ * A query run on a thread that is interrupted stops between its steps,
+ * and every few thousand rows in the loops over rows, so a search that
+ * is no longer wanted does not hold up the searches after it.
+ *
+ * @author Sindre Glomnes
+ * @version 2021-05-14
+ */
+class QueryPlanner {
+    private final AddressColumns columns; // The rows of the register
+    private final NameDictionary dictionary; // The names of the register
+    private final EnumMap<AddressField, FieldIndex> indexes; // The field indexes of the register
+    private final BitmapIndex categoryBitmaps; // Rows of each category
+    private final BitmapIndex zipDigitBitmaps; // Rows of each first digit of the zip code
+
+    /**
+     * Constructor
+     *
+     * @param columns the rows of the register
+     * @param dictionary the names of the register
+     * @param indexes the field indexes of the register
+     * @param categoryBitmaps the category bitmap index of the register
+     * @param zipDigitBitmaps the bitmap index of the first zip code digit
+     */
+    QueryPlanner(AddressColumns columns, NameDictionary dictionary, EnumMap<AddressField, FieldIndex> indexes,
+                 BitmapIndex categoryBitmaps, BitmapIndex zipDigitBitmaps) {
+        this.columns = columns;
+        this.dictionary = dictionary;
+        this.indexes = indexes;
+        this.categoryBitmaps = categoryBitmaps;
+        this.zipDigitBitmaps = zipDigitBitmaps;
+    }
+
+    /**
+     * Runs a query.
+     *
+     * @param query the query
+     * @return the live rows matching the query, in insertion order
+     */
+    IntList run(AddressQuery query) {
+        IntList rows = query.rows(this);
+        checkCancelled();
+        rows.sort();
+        checkCancelled();
+        IntList result = new IntList(rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            checkCancelled(i);
+            int row = rows.get(i);
+            // Or queries remove duplicates, but other queries can not give a row twice.
+            if (columns.isLive(row) && (result.size() == 0 || result.get(result.size() - 1) != row)) {
+                result.add(row);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Stops the query if the thread running it is interrupted.
+     * The interrupt flag is kept, so the caller also sees it.
+     *
+     * @throws CancellationException if the thread is interrupted
+     */
+    void checkCancelled() {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new CancellationException("Search was cancelled");
+        }
+    }
+
+    /**
+     * Stops the query if the thread running it is interrupted, checked
+     * once every 65536 rows of a loop over rows.
+     *
+     * @param index index of the row in the loop
+     * @throws CancellationException if the thread is interrupted
+     */
+    void checkCancelled(int index) {
+        if ((index & 0xFFFF) == 0) {
+            checkCancelled();
+        }
+    }
+
+    /**
+     * Counts the rows matching a field predicate, from the bitmap
+     * index if there is one, else from the sorted index.
+     *
+     * @param field the field
+     * @param term the normalized term
+     * @return number of rows, possibly including deleted rows
+     */
+    long count(AddressField field, String term) {
+        RowBitmap bitmap = bitmap(field, term);
+        return bitmap != null ? bitmap.cardinality() : indexes.get(field).countPrefix(term);
+    }
+
+    /**
+     * Finds the rows matching a field predicate, from the bitmap
+     * index if there is one, else from the sorted index.
+     *
+     * @param field the field
+     * @param term the normalized term
+     * @return row numbers, possibly including deleted rows
+     */
+    IntList lookup(AddressField field, String term) {
+        RowBitmap bitmap = bitmap(field, term);
+        return bitmap != null ? bitmap.toIntList() : indexes.get(field).searchPrefix(term);
+    }
+
+    /**
+     * Returns the bitmap with exactly the rows matching a field predicate,
+     * if there is one. Category always has a bitmap, and a zip code
+     * predicate has one if the term is a single digit.
+     *
+     * @param field the field
+     * @param term the normalized term
+     * @return the live rows matching the predicate, which must only be read, or null
+     */
+    RowBitmap bitmap(AddressField field, String term) {
+        if (field == AddressField.CATEGORY) {
+            return term.length() == 1 ? categoryBitmaps.get(term.charAt(0) & 0xFF) : new RowBitmap();
+        }
+        if (field == AddressField.ZIP_CODE && term.length() == 1 && term.charAt(0) >= '0' && term.charAt(0) <= '9') {
+            return zipDigitBitmaps.get(term.charAt(0) - '0');
+        }
+        return null;
+    }
+
+    /**
+     * Checks if a row matches a field predicate, by reading the columns.
+     *
+     * @param field the field
+     * @param term the normalized term
+     * @param row row number
+     * @return true if the row matches
+     */
+    boolean matches(AddressField field, String term, int row) {
+        switch (field) {
+            case ZIP_CODE:
+                return Address.formatCode(columns.zipCode(row), "Zip code").startsWith(term);
+            case POSTAL:
+                return dictionary.name(columns.postalId(row)).startsWith(term);
+            case MUNICIPAL_CODE:
+                return Address.formatCode(columns.municipalCode(row), "Municipal code").startsWith(term);
+            case MUNICIPALITY_NAME:
+                return dictionary.name(columns.municipalityNameId(row)).startsWith(term);
+            case CATEGORY:
+                return term.length() == 1 && columns.category(row) == term.charAt(0);
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package mappe.del3.addressregister;
+
+/**
+ * A change to the AddressRegister, sent to every RegisterListener.
+ * Single changes carry the address that changed, so a list of the
+ * addresses can be updated without reading the whole register again.
+ * Changes to many addresses at once are sent as one event.
+ *
+ * @author Sindre Glomnes
+ * @version 2021-05-14
+ */
+public class RegisterEvent {
+
+    /**
+     * The kinds of changes to the register.
+     */
+    public enum Type {
+        ADDED, // One address was added
+        REMOVED, // One address was removed
+        REPLACED, // One address was replaced by another
+        BULK_ADDED, // Many addresses were added at once
+        CLEARED // All addresses were removed
+    }
+
+    private final Type type; // The kind of change
+    private final Address address; // The added, removed or new address, or null for bulk changes
+    private final Address previous; // The replaced address, or null
+    private final int count; // Number of addresses added or removed
+    private final long version; // Version of the register after the change
+
+    /**
+     * Constructor. Events are only created by AddressRegister.
+     *
+     * @param type the kind of change
+     * @param address the added, removed or new address, or null
+     * @param previous the replaced address, or null
+     * @param count number of addresses added or removed
+     * @param version version of the register after the change
+     */
+    RegisterEvent(Type type, Address address, Address previous, int count, long version) {
+        this.type = type;
+        this.address = address;
+        this.previous = previous;
+        this.count = count;
+        this.version = version;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return the address added or removed, or the new address
+     * if it was replaced. Null for bulk changes and clear.
+     */
+    public Address getAddress() {
+        return address;
+    }
+
+    /**
+     * @return the address that was replaced, or null
+     */
+    public Address getPrevious() {
+        return previous;
+    }
+
+    /**
+     * @return number of addresses added or removed by the change
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return version of the register after the change
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public String toString() {
+        return type + " (" + count + ")";
+    }
+}
@@ -0,0 +1,31 @@
+package mappe.del3.addressregister;
+
+/**
+ * Listener for changes to the AddressRegister. The listener is called
+ * on the thread that changed the register, after the change is done
+ * and the register is unlocked, so it may read the register.
+ * Listeners that must see the changes in the order they were made,
+ * like a journal, also get them while the register is still locked.
+ *
+ * @author Sindre Glomnes
+ * @version 2021-05-14
+ */
+public interface RegisterListener {
+
+    /**
+     * Called after every change to the register.
+     *
+     * @param event what changed
+     */
+    void registerChanged(RegisterEvent event);
+
+    /**
+     * Called after every change to the register, before the register is
+     * unlocked, so the changes come in the order they were made. Must be
+     * fast, and must not use the register. Does nothing by default.
+     *
+     * @param event what changed
+     */
+    default void registerChangedLocked(RegisterEvent event) {
+    }
+}
@@ -0,0 +1,85 @@
+package mappe.del3.addressregister;
+
+import java.util.AbstractCollection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An immutable, point-in-time view of all addresses in the register.
+ * Taking a snapshot is constant time, since it shares the columns of
+ * the register instead of copying them. Reading a snapshot takes no
+ * locks, so a long export does not stop others from changing the
+ * register, and never sees a change that was made after the snapshot.
+ *
+ * @author Sindre Glomnes
+ * @version 2021-05-14
+ */
+public class RegisterSnapshot extends AbstractCollection<Address> {
+    private final AddressColumns columns; // The rows when the snapshot was taken
+    private final NameDictionary dictionary; // The names when the snapshot was taken
+    private final long version; // Version of the register when the snapshot was taken
+
+    /**
+     * Constructor. Creates a snapshot, only called by AddressRegister.
+     *
+     * @param columns snapshot of the columns
+     * @param dictionary snapshot of the dictionary
+     * @param version version of the register
+     */
+    RegisterSnapshot(AddressColumns columns, NameDictionary dictionary, long version) {
+        this.columns = columns;
+        this.dictionary = dictionary;
+        this.version = version;
+    }
+
+    /**
+     * @return version of the register when the snapshot was taken,
+     * which increases with every change to the register
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Iterates the addresses in insertion order. The Address
+     * objects are created from the columns while iterating.
+     *
+     * @return iterator of the addresses
+     */
+    @Override
+    public Iterator<Address> iterator() {
+        return new Iterator<>() {
+            private int row = nextLive(0); // Next row to return
+
+            private int nextLive(int from) {
+                while (from < columns.size() && !columns.isLive(from)) {
+                    from++;
+                }
+                return from;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return row < columns.size();
+            }
+
+            @Override
+            public Address next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Address address = columns.toAddress(row, dictionary);
+                row = nextLive(row + 1);
+                return address;
+            }
+        };
+    }
+
+    /**
+     * @return number of addresses in the snapshot
+     */
+    @Override
+    public int size() {
+        return columns.liveCount();
+    }
+}
@@ -0,0 +1,287 @@
+package mappe.del3.addressregister;
+
+import java.util.Arrays;
+
+/**
+ * Compressed set of row numbers, built like a roaring bitmap. The rows are
+ * split into chunks of 65536 by the high 16 bits of the row number. A chunk
+ * with few rows stores the low 16 bits in a sorted char array (2 bytes per
+ * row), and a chunk with many rows stores a bit set of 8 kB (1 bit per
+ * possible row). A set of a million rows therefore never takes more than
+ * about 125 kB, and a sparse set takes 2 bytes per row.
+ *
+ * The number of rows is kept up to date, so counting is O(1).
+ *
+ * @author Sindre Glomnes
+ * @version 2021-05-14
+ */
+class RowBitmap {
+    private char[] keys = new char[4]; // High 16 bits of the rows in each chunk, sorted
+    private Chunk[] chunks = new Chunk[4]; // The chunks, in the same order as keys
+    private int chunkCount; // Number of chunks in use
+    private int cardinality; // Number of rows in the set
+
+    /**
+     * Adds a row to the set.
+     *
+     * @param row row number
+     */
+    void add(int row) {
+        char key = (char) (row >>> 16);
+        int i = indexOf(key);
+        if (i < 0) {
+            i = -i - 1;
+            insertChunk(i, key, new Chunk());
+        }
+        if (chunks[i].add((char) row)) {
+            cardinality++;
+        }
+    }
+
+    /**
+     * Removes a row from the set.
+     *
+     * @param row row number
+     */
+    void remove(int row) {
+        int i = indexOf((char) (row >>> 16));
+        if (i >= 0 && chunks[i].remove((char) row)) {
+            cardinality--;
+            if (chunks[i].cardinality == 0) {
+                removeChunk(i);
+            }
+        }
+    }
+
+    /**
+     * @param row row number
+     * @return true if the row is in the set
+     */
+    boolean contains(int row) {
+        int i = indexOf((char) (row >>> 16));
+        return i >= 0 && chunks[i].contains((char) row);
+    }
+
+    /**
+     * @return number of rows in the set
+     */
+    int cardinality() {
+        return cardinality;
+    }
+
+    /**
+     * Returns the rows in both this set and the other set.
+     * Neither set is changed.
+     *
+     * @param other the other set
+     * @return a new set with the common rows
+     */
+    RowBitmap and(RowBitmap other) {
+        RowBitmap result = new RowBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < chunkCount && j < other.chunkCount) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                Chunk chunk = chunks[i].and(other.chunks[j]);
+                if (chunk.cardinality > 0) {
+                    result.insertChunk(result.chunkCount, keys[i], chunk);
+                    result.cardinality += chunk.cardinality;
+                }
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the rows in ascending order
+     */
+    IntList toIntList() {
+        IntList result = new IntList(cardinality);
+        for (int i = 0; i < chunkCount; i++) {
+            chunks[i].addTo(result, keys[i] << 16);
+        }
+        return result;
+    }
+
+    /**
+     * @return approximate number of bytes used by the chunks
+     */
+    long sizeInBytes() {
+        long bytes = 0;
+        for (int i = 0; i < chunkCount; i++) {
+            bytes += chunks[i].bits != null ? chunks[i].bits.length * 8L : chunks[i].values.length * 2L;
+        }
+        return bytes;
+    }
+
+    /**
+     * Finds a chunk by binary search. Rows are mostly added in
+     * ascending order, so the last chunk is checked first.
+     *
+     * @param key high 16 bits of the rows
+     * @return index of the chunk, or (-(insertion point) - 1) if there is none
+     */
+    private int indexOf(char key) {
+        if (chunkCount > 0 && keys[chunkCount - 1] == key) {
+            return chunkCount - 1;
+        }
+        return Arrays.binarySearch(keys, 0, chunkCount, key);
+    }
+
+    private void insertChunk(int i, char key, Chunk chunk) {
+        if (chunkCount == keys.length) {
+            keys = Arrays.copyOf(keys, chunkCount * 2);
+            chunks = Arrays.copyOf(chunks, chunkCount * 2);
+        }
+        System.arraycopy(keys, i, keys, i + 1, chunkCount - i);
+        System.arraycopy(chunks, i, chunks, i + 1, chunkCount - i);
+        keys[i] = key;
+        chunks[i] = chunk;
+        chunkCount++;
+    }
+
+    private void removeChunk(int i) {
+        System.arraycopy(keys, i + 1, keys, i, chunkCount - i - 1);
+        System.arraycopy(chunks, i + 1, chunks, i, chunkCount - i - 1);
+        chunks[--chunkCount] = null;
+    }
+
+    /**
+     * The rows of a set with the same high 16 bits. The chunk is an array
+     * of the low 16 bits while it has at most ARRAY_MAX rows, and a bit set
+     * when it has more. A bit set only becomes an array again when it has
+     * fewer than half of ARRAY_MAX rows, so a chunk does not switch back
+     * and forth when rows are added and removed around the limit.
+     */
+    private static class Chunk {
+        private static final int ARRAY_MAX = 4096; // Most rows in an array, where it takes as much memory as a bit set
+        private char[] values = new char[4]; // Sorted low 16 bits, used when bits is null
+        private long[] bits; // Bit set of the low 16 bits, or null
+        private int cardinality; // Number of rows in the chunk
+
+        boolean add(char low) {
+            if (bits != null) {
+                long before = bits[low >>> 6];
+                bits[low >>> 6] = before | (1L << low);
+                if (before == bits[low >>> 6]) {
+                    return false;
+                }
+                cardinality++;
+                return true;
+            }
+            int i = Arrays.binarySearch(values, 0, cardinality, low);
+            if (i >= 0) {
+                return false;
+            }
+            if (cardinality == ARRAY_MAX) {
+                toBits();
+                return add(low);
+            }
+            i = -i - 1;
+            if (cardinality == values.length) {
+                values = Arrays.copyOf(values, Math.min(cardinality * 2, ARRAY_MAX));
+            }
+            System.arraycopy(values, i, values, i + 1, cardinality - i);
+            values[i] = low;
+            cardinality++;
+            return true;
+        }
+
+        boolean remove(char low) {
+            if (bits != null) {
+                long before = bits[low >>> 6];
+                bits[low >>> 6] = before & ~(1L << low);
+                if (before == bits[low >>> 6]) {
+                    return false;
+                }
+                cardinality--;
+                if (cardinality < ARRAY_MAX / 2) {
+                    toValues();
+                }
+                return true;
+            }
+            int i = Arrays.binarySearch(values, 0, cardinality, low);
+            if (i < 0) {
+                return false;
+            }
+            System.arraycopy(values, i + 1, values, i, cardinality - i - 1);
+            cardinality--;
+            return true;
+        }
+
+        boolean contains(char low) {
+            if (bits != null) {
+                return (bits[low >>> 6] & (1L << low)) != 0;
+            }
+            return Arrays.binarySearch(values, 0, cardinality, low) >= 0;
+        }
+
+        Chunk and(Chunk other) {
+            Chunk result = new Chunk();
+            if (bits != null && other.bits != null) {
+                result.bits = new long[1024];
+                for (int i = 0; i < 1024; i++) {
+                    result.bits[i] = bits[i] & other.bits[i];
+                    result.cardinality += Long.bitCount(result.bits[i]);
+                }
+                if (result.cardinality <= ARRAY_MAX) {
+                    result.toValues();
+                }
+                return result;
+            }
+            // At least one chunk is an array, so the result is at most as large as that array.
+            Chunk array = bits == null ? this : other;
+            Chunk probe = array == this ? other : this;
+            result.values = new char[Math.max(array.cardinality, 1)];
+            for (int i = 0; i < array.cardinality; i++) {
+                if (probe.contains(array.values[i])) {
+                    result.values[result.cardinality++] = array.values[i];
+                }
+            }
+            return result;
+        }
+
+        void addTo(IntList out, int high) {
+            if (bits != null) {
+                for (int i = 0; i < bits.length; i++) {
+                    long word = bits[i];
+                    while (word != 0) {
+                        out.add(high | (i << 6) | Long.numberOfTrailingZeros(word));
+                        word &= word - 1;
+                    }
+                }
+            } else {
+                for (int i = 0; i < cardinality; i++) {
+                    out.add(high | values[i]);
+                }
+            }
+        }
+
+        private void toBits() {
+            bits = new long[1024];
+            for (int i = 0; i < cardinality; i++) {
+                bits[values[i] >>> 6] |= 1L << values[i];
+            }
+            values = null;
+        }
+
+        private void toValues() {
+            values = new char[Math.max(cardinality, 4)];
+            int n = 0;
+            for (int i = 0; i < bits.length; i++) {
+                long word = bits[i];
+                while (word != 0) {
+                    values[n++] = (char) ((i << 6) | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            bits = null;
+        }
+    }
+}
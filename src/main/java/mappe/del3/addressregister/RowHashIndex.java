@@ -0,0 +1,167 @@
+package mappe.del3.addressregister;
+
+/**
+ * Hash index from the identity of an address (all five fields) to its row
+ * in AddressColumns. Uses open addressing with linear probing in a plain
+ * int array, so there is no entry object per address. Removed rows are
+ * taken out with backward shift deletion, which keeps lookups short
+ * without leaving tombstones in the table.
+ *
+ * @author Sindre Glomnes
+ * @version 2021-05-14
+ */
+class RowHashIndex {
+    private final AddressColumns columns; // The rows being indexed
+    private int[] table; // Row number + 1 in each slot, 0 = empty slot
+    private int count; // Number of rows in the table
+
+    /**
+     * Constructor. Creates an empty index with room for capacity rows.
+     *
+     * @param columns the rows being indexed
+     * @param capacity initial capacity
+     */
+    RowHashIndex(AddressColumns columns, int capacity) {
+        this.columns = columns;
+        this.table = new int[tableSize(capacity)];
+    }
+
+    /**
+     * Finds the row of an address.
+     *
+     * @return row number, or -1 if the address is not in the index
+     */
+    int find(int zipCode, int municipalCode, int postalId, int municipalityNameId, char category) {
+        int mask = table.length - 1;
+        int slot = hash(zipCode, municipalCode, postalId, municipalityNameId, category) & mask;
+        while (table[slot] != 0) {
+            int row = table[slot] - 1;
+            if (columns.zipCode(row) == zipCode && columns.municipalCode(row) == municipalCode
+                    && columns.postalId(row) == postalId && columns.municipalityNameId(row) == municipalityNameId
+                    && columns.category(row) == category) {
+                return row;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Adds a row. The address of the row must not already be in the index.
+     *
+     * @param row row number
+     */
+    void insert(int row) {
+        if ((count + 1) * 2 > table.length) {
+            resize(table.length * 2);
+        }
+        place(row);
+        count++;
+    }
+
+    /**
+     * Removes a row from the index.
+     *
+     * @param row row number
+     */
+    void remove(int row) {
+        int mask = table.length - 1;
+        int slot = hashOf(row) & mask;
+        while (table[slot] != row + 1) {
+            if (table[slot] == 0) {
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        // Moves later rows in the probe sequence back into the free slot.
+        int free = slot;
+        slot = (slot + 1) & mask;
+        while (table[slot] != 0) {
+            int home = hashOf(table[slot] - 1) & mask;
+            if (((slot - home) & mask) >= ((slot - free) & mask)) {
+                table[free] = table[slot];
+                free = slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        table[free] = 0;
+        count--;
+    }
+
+    /**
+     * Makes room for at least capacity rows without resizing.
+     *
+     * @param capacity number of rows
+     */
+    void ensureCapacity(int capacity) {
+        int size = tableSize(capacity);
+        if (size > table.length) {
+            resize(size);
+        }
+    }
+
+    /**
+     * Puts a row in the first free slot of its probe sequence.
+     *
+     * @param row row number
+     */
+    private void place(int row) {
+        int mask = table.length - 1;
+        int slot = hashOf(row) & mask;
+        while (table[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = row + 1;
+    }
+
+    /**
+     * Moves all rows to a new table.
+     *
+     * @param size new table size, a power of two
+     */
+    private void resize(int size) {
+        int[] old = table;
+        table = new int[size];
+        for (int entry : old) {
+            if (entry != 0) {
+                place(entry - 1);
+            }
+        }
+    }
+
+    /**
+     * @param row row number
+     * @return hash of the address in the row
+     */
+    private int hashOf(int row) {
+        return hash(columns.zipCode(row), columns.municipalCode(row), columns.postalId(row),
+                columns.municipalityNameId(row), columns.category(row));
+    }
+
+    /**
+     * Hash of the five fields of an address, mixed so that
+     * the low bits used for the slot are well spread.
+     */
+    private static int hash(int zipCode, int municipalCode, int postalId, int municipalityNameId, char category) {
+        int h = zipCode;
+        h = 31 * h + municipalCode;
+        h = 31 * h + postalId;
+        h = 31 * h + municipalityNameId;
+        h = 31 * h + category;
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @param capacity number of rows
+     * @return smallest power of two table that keeps the load at most one half
+     */
+    private static int tableSize(int capacity) {
+        int size = 16;
+        while (size < capacity * 2L) {
+            size <<= 1;
+        }
+        return size;
+    }
+}
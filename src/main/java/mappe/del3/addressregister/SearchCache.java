@@ -0,0 +1,109 @@
+package mappe.del3.addressregister;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of search results, which removes the least recently
+ * used result when it is full. Results are keyed by the query, which
+ * is equal to another query with the same structure, fields and
+ * normalized terms.
+ *
+ * Every result has the version of the register it was found in. A result
+ * is only used while the register has the same version, so any add,
+ * remove or clear makes all cached results out of date.
+ *
+ * The cache is used by several searches at the same time, so all
+ * methods are synchronized.
+ *
+ * @author Sindre Glomnes
+ * @version 2021-05-14
+ */
+class SearchCache {
+    private final LinkedHashMap<AddressQuery, SearchResult> results; // Query -> result, least recently used first
+    private int capacity; // Most results in the cache
+    private long hits; // Searches answered by the cache
+    private long misses; // Searches that had to run
+
+    /**
+     * Constructor
+     *
+     * @param capacity most results in the cache
+     */
+    SearchCache(int capacity) {
+        setCapacity(capacity);
+        results = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<AddressQuery, SearchResult> eldest) {
+                return size() > SearchCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Finds the result of a query, if it was found in this version of the register.
+     *
+     * @param query the query
+     * @param version the current version of the register
+     * @return the result, or null if it is not cached or out of date
+     */
+    synchronized SearchResult get(AddressQuery query, long version) {
+        SearchResult result = results.get(query);
+        if (result != null && result.getVersion() == version) {
+            hits++;
+            return result;
+        }
+        if (result != null) {
+            results.remove(query);
+        }
+        misses++;
+        return null;
+    }
+
+    /**
+     * Adds the result of a query to the cache.
+     *
+     * @param query the query
+     * @param result the result
+     */
+    synchronized void put(AddressQuery query, SearchResult result) {
+        results.put(query, result);
+    }
+
+    /**
+     * Removes all results, but keeps the hit and miss counts.
+     */
+    synchronized void clear() {
+        results.clear();
+    }
+
+    /**
+     * Sets the most results in the cache, and removes the least
+     * recently used results if there are more.
+     *
+     * @param capacity most results in the cache, 0 turns the cache off
+     */
+    synchronized void setCapacity(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Cache capacity can not be negative");
+        }
+        this.capacity = capacity;
+        if (results != null) {
+            while (results.size() > capacity) {
+                results.remove(results.keySet().iterator().next());
+            }
+        }
+    }
+
+    synchronized long getHits() {
+        return hits;
+    }
+
+    synchronized long getMisses() {
+        return misses;
+    }
+
+    synchronized int size() {
+        return results.size();
+    }
+}
@@ -0,0 +1,106 @@
+package mappe.del3.addressregister;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * The result of a search, held as the row numbers of the matching
+ * addresses. An Address object is only created when an address is read,
+ * so a search with a million matches costs four bytes per match until
+ * the addresses are actually shown. The size of the result is the total
+ * number of matches, and page gives a part of it.
+ *
+ * The result reads from a snapshot of the register taken when the
+ * search ran, so it takes no locks and does not change when the
+ * register changes.
+ *
+ * @author Sindre Glomnes
+ * @version 2021-05-14
+ */
+public class SearchResult extends AbstractList<Address> implements RandomAccess {
+    private final AddressColumns columns; // The rows when the search ran
+    private final NameDictionary dictionary; // The names when the search ran
+    private final int[] rows; // Row numbers of the matches, in result order
+    private final long version; // Version of the register when the search ran
+
+    /**
+     * Constructor. Creates a result, only called by AddressRegister.
+     *
+     * @param columns snapshot of the columns
+     * @param dictionary snapshot of the dictionary
+     * @param rows row numbers of the matches, all live in the snapshot
+     * @param version version of the register
+     */
+    SearchResult(AddressColumns columns, NameDictionary dictionary, int[] rows, long version) {
+        this.columns = columns;
+        this.dictionary = dictionary;
+        this.rows = rows;
+        this.version = version;
+    }
+
+    /**
+     * @return a result without any addresses
+     */
+    static SearchResult empty() {
+        return new SearchResult(null, null, new int[0], 0);
+    }
+
+    /**
+     * Creates the address at a position in the result.
+     *
+     * @param index position in the result
+     * @return the address
+     */
+    @Override
+    public Address get(int index) {
+        if (index < 0 || index >= rows.length) {
+            throw new IndexOutOfBoundsException("Index " + index + " is outside the result of " + rows.length);
+        }
+        return columns.toAddress(rows[index], dictionary);
+    }
+
+    /**
+     * @param index position in the result
+     * @return row number of the address at the position
+     */
+    int row(int index) {
+        return rows[index];
+    }
+
+    /**
+     * @return total number of addresses in the result
+     */
+    @Override
+    public int size() {
+        return rows.length;
+    }
+
+    /**
+     * Creates the addresses of one page of the result.
+     *
+     * @param offset position of the first address, 0 for the first page
+     * @param limit the most addresses on the page
+     * @return the addresses, fewer than limit at the end of the result
+     */
+    public List<Address> page(int offset, int limit) {
+        if (offset < 0 || limit < 0) {
+            throw new IllegalArgumentException("Offset and limit can not be negative");
+        }
+        int end = (int) Math.min((long) offset + limit, rows.length);
+        ArrayList<Address> page = new ArrayList<>(Math.max(end - offset, 0));
+        for (int i = offset; i < end; i++) {
+            page.add(get(i));
+        }
+        return page;
+    }
+
+    /**
+     * @return version of the register when the search ran,
+     * which increases with every change to the register
+     */
+    public long getVersion() {
+        return version;
+    }
+}
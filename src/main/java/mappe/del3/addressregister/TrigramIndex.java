@@ -0,0 +1,135 @@
+package mappe.del3.addressregister;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Index for substring search over the distinct names of one field.
+ * Every name is split into its trigrams (all runs of three letters),
+ * and each trigram has a list of the names it is found in. A name that
+ * contains the term must contain every trigram of the term, so only the
+ * names in all of those lists are checked with String.contains.
+ *
+ * Terms shorter than three letters have no trigrams, and are checked
+ * against every distinct name. There are only a few thousand of them,
+ * so this is still much less than a scan of the register.
+ *
+ * Names are compared as Java chars in upper case, so Æ, Ø and Å are
+ * letters like any other.
+ *
+ * Names are only added. The register rebuilds the index when it is
+ * cleared or compacted.
+ *
+ * @author Sindre Glomnes
+ * @version 2021-05-14
+ */
+class TrigramIndex {
+    private final HashSet<String> known = new HashSet<>(); // Names in the index
+    private final ArrayList<String> names = new ArrayList<>(); // Names in the index, by id
+    private final HashMap<Long, IntList> trigrams = new HashMap<>(); // Trigram -> ids of the names containing it
+
+    /**
+     * Adds a name to the index, unless it is already there.
+     *
+     * @param name the name, in upper case
+     */
+    void add(String name) {
+        if (!known.add(name)) {
+            return;
+        }
+        int id = names.size();
+        names.add(name);
+        for (int i = 0; i + 3 <= name.length(); i++) {
+            IntList ids = trigrams.computeIfAbsent(trigram(name, i), k -> new IntList(4));
+            // Ids are added in ascending order, so each list stays sorted. A name
+            // with the same trigram twice must only be in the list once.
+            if (ids.size() == 0 || ids.get(ids.size() - 1) != id) {
+                ids.add(id);
+            }
+        }
+    }
+
+    /**
+     * Removes all names from the index.
+     */
+    void clear() {
+        known.clear();
+        names.clear();
+        trigrams.clear();
+    }
+
+    /**
+     * Finds the names that contain the term.
+     *
+     * @param term the term, in any case
+     * @return the names containing the term, in alphabetical order
+     */
+    List<String> search(String term) {
+        String upper = term.toUpperCase();
+        ArrayList<String> result = new ArrayList<>();
+        if (upper.length() < 3) {
+            for (String name : names) {
+                if (name.contains(upper)) {
+                    result.add(name);
+                }
+            }
+        } else {
+            IntList candidates = candidates(upper);
+            for (int i = 0; i < candidates.size(); i++) {
+                String name = names.get(candidates.get(i));
+                if (name.contains(upper)) {
+                    result.add(name);
+                }
+            }
+        }
+        result.sort(null);
+        return result;
+    }
+
+    /**
+     * Intersects the name lists of all trigrams of the term,
+     * starting with the shortest list.
+     *
+     * @param term the term in upper case, at least three letters
+     * @return ids of the names that contain all trigrams of the term
+     */
+    private IntList candidates(String term) {
+        ArrayList<IntList> lists = new ArrayList<>();
+        for (int i = 0; i + 3 <= term.length(); i++) {
+            IntList ids = trigrams.get(trigram(term, i));
+            if (ids == null) {
+                return new IntList(1);
+            }
+            lists.add(ids);
+        }
+        lists.sort((a, b) -> Integer.compare(a.size(), b.size()));
+        IntList result = lists.get(0);
+        for (int l = 1; l < lists.size() && result.size() > 0; l++) {
+            IntList other = lists.get(l);
+            IntList common = new IntList(result.size());
+            int j = 0;
+            for (int i = 0; i < result.size(); i++) {
+                int id = result.get(i);
+                while (j < other.size() && other.get(j) < id) {
+                    j++;
+                }
+                if (j < other.size() && other.get(j) == id) {
+                    common.add(id);
+                }
+            }
+            result = common;
+        }
+        return result;
+    }
+
+    /**
+     * @param s the string
+     * @param i start of the trigram
+     * @return the three chars from i packed in a long
+     */
+    private static long trigram(String s, int i) {
+        return ((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2);
+    }
+}
@@ -0,0 +1,273 @@
+package mappe.del3.addressregister.cli;
+
+import mappe.del3.addressregister.Address;
+import mappe.del3.addressregister.AddressQuery;
+import mappe.del3.addressregister.AddressRegister;
+import mappe.del3.addressregister.ImportSummary;
+import mappe.del3.addressregister.percistence.AddressExporter;
+import mappe.del3.addressregister.percistence.CsvReader;
+import mappe.del3.addressregister.percistence.ExportSummary;
+import mappe.del3.addressregister.percistence.InvalidFileException;
+import mappe.del3.addressregister.percistence.TxtReader;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Command line entry point for using the register in scripts, without
+ * starting JavaFX. One run imports files, optionally filters and sorts
+ * the addresses, and exports or prints them:
+ *
+ * <pre>
+ * AddressRegisterCli --import FILE [--import FILE ...] [--dedupe]
+ *                    [--query QUERY] [--sort FIELD]
+ *                    [--export FILE [--level N]] [--print]
+ * </pre>
+ *
+ * Files ending with .csv or .csv.gz are read and written as csv, other
+ * files as txt, and files ending with .gz are compressed, at the level
+ * given by --level, which is an error for other exports. The query has
+ * the syntax of AddressQuery.parse, and the sort fields are the field
+ * names of the query: zip, postal, municipalcode, municipality and category.
+ * Duplicate addresses in the imported files are an error, unless
+ * --dedupe is given, which skips them.
+ *
+ * A summary of the run is written as one line of JSON to standard out, or
+ * to standard error when the addresses are printed to standard out as tab
+ * separated lines. Errors are written to standard error, and the exit
+ * code tells what went wrong, see the constants of this class.
+ *
+ * @author Sindre Glomnes
+ * @version 2021-05-14
+ */
+public class AddressRegisterCli {
+    public static final int OK = 0; // The run succeeded
+    public static final int USAGE = 2; // The arguments are not valid
+    public static final int INVALID_DATA = 3; // A file or the query is not valid, or there are duplicates
+    public static final int IO_ERROR = 4; // A file could not be read or written
+
+    private final List<Path> imports = new ArrayList<>(); // Files imported, in order
+    private boolean dedupe; // True if duplicates are skipped instead of being an error
+    private String query; // Filters the addresses, or null for all
+    private Comparator<Address> sort; // Sorts the addresses, or null for register order
+    private Path export; // File exported to, or null
+    private int level = -1; // Compression level of the export
+    private boolean print; // True if the addresses are printed to standard out
+
+    /**
+     * Runs the command and exits with its exit code.
+     *
+     * @param args the arguments
+     */
+    public static void main(String[] args) {
+        System.exit(run(args, System.out, System.err));
+    }
+
+    /**
+     * Runs the command.
+     *
+     * @param args the arguments
+     * @param out standard out
+     * @param err standard error
+     * @return the exit code
+     */
+    static int run(String[] args, PrintStream out, PrintStream err) {
+        AddressRegisterCli cli = new AddressRegisterCli();
+        try {
+            cli.parse(args);
+        } catch (IllegalArgumentException e) {
+            err.println("error: " + e.getMessage());
+            err.println("usage: AddressRegisterCli --import FILE [--import FILE ...] [--dedupe] [--query QUERY]"
+                    + " [--sort FIELD] [--export FILE [--level N]] [--print]");
+            return USAGE;
+        }
+        try {
+            return cli.execute(out, err);
+        } catch (IllegalArgumentException | InvalidFileException e) {
+            err.println("error: " + e.getMessage());
+            return INVALID_DATA;
+        } catch (IOException e) {
+            err.println("error: " + e.getMessage());
+            return IO_ERROR;
+        }
+    }
+
+    /**
+     * Reads the arguments.
+     *
+     * @param args the arguments
+     * @throws IllegalArgumentException if the arguments are not valid
+     */
+    private void parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--import":
+                    imports.add(Paths.get(value(args, ++i)));
+                    break;
+                case "--dedupe":
+                    dedupe = true;
+                    break;
+                case "--query":
+                    query = value(args, ++i);
+                    break;
+                case "--sort":
+                    sort = comparator(value(args, ++i));
+                    break;
+                case "--export":
+                    export = Paths.get(value(args, ++i));
+                    break;
+                case "--level":
+                    try {
+                        level = Integer.parseInt(value(args, ++i));
+                    } catch (NumberFormatException e) {
+                        level = -2;
+                    }
+                    if (level < 0 || level > 9) {
+                        throw new IllegalArgumentException("Level must be a number from 0 to 9");
+                    }
+                    break;
+                case "--print":
+                    print = true;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown argument " + args[i]);
+            }
+        }
+        if (imports.isEmpty()) {
+            throw new IllegalArgumentException("At least one file must be imported");
+        }
+        if (level >= 0 && (export == null || !AddressExporter.isCompressed(export))) {
+            throw new IllegalArgumentException("--level only applies to an export to a .gz file");
+        }
+    }
+
+    /**
+     * @param args the arguments
+     * @param i index of the value of an option
+     * @return the value
+     * @throws IllegalArgumentException if the option has no value
+     */
+    private static String value(String[] args, int i) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException(args[i - 1] + " needs a value");
+        }
+        return args[i];
+    }
+
+    /**
+     * @param field field name of the query syntax
+     * @return comparator of the field
+     * @throws IllegalArgumentException if the field is not known
+     */
+    private static Comparator<Address> comparator(String field) {
+        switch (field.toLowerCase(Locale.ROOT)) {
+            case "zip":
+                return Comparator.comparing(Address::getZipCode);
+            case "postal":
+                return Comparator.comparing(Address::getPostal);
+            case "municipalcode":
+                return Comparator.comparing(Address::getMunicipalCode);
+            case "municipality":
+                return Comparator.comparing(Address::getMunicipalityName);
+            case "category":
+                return Comparator.comparing(Address::getCategory);
+            default:
+                throw new IllegalArgumentException("Unknown sort field " + field);
+        }
+    }
+
+    /**
+     * Imports, filters, sorts, exports and prints the addresses.
+     *
+     * @param out standard out
+     * @param err standard error
+     * @return the exit code
+     * @throws IOException if a file could not be read or written
+     * @throws IllegalArgumentException if a file or the query is not valid
+     */
+    private int execute(PrintStream out, PrintStream err) throws IOException {
+        long start = System.nanoTime();
+        AddressRegister register = AddressRegister.getInstance();
+        register.clearRegister();
+
+        int imported = 0;
+        int duplicates = 0;
+        for (Path file : imports) {
+            ImportSummary summary = register.addAll(isCsv(file) ? new CsvReader().read(file) : new TxtReader().read(file));
+            imported += summary.getAccepted();
+            duplicates += summary.getDuplicates();
+        }
+        if (duplicates > 0 && !dedupe) {
+            err.println("error: " + duplicates + " duplicate addresses, use --dedupe to skip them");
+            return INVALID_DATA;
+        }
+
+        List<Address> addresses = query == null ? register.allAddresses() : register.query(AddressQuery.parse(query));
+        if (sort != null) {
+            addresses = new ArrayList<>(addresses);
+            addresses.sort(sort);
+        }
+
+        ExportSummary exported = null;
+        if (export != null) {
+            AddressExporter exporter = isCsv(export) ? AddressExporter.csv() : AddressExporter.txt();
+            exporter.setCompressionLevel(level);
+            exported = exporter.export(export, addresses);
+        }
+        if (print) {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 16);
+            for (Address address : addresses) {
+                writer.write(address.getZipCode() + "\t" + address.getPostal() + "\t" + address.getMunicipalCode()
+                        + "\t" + address.getMunicipalityName() + "\t" + address.getCategory() + "\n");
+            }
+            writer.flush();
+        }
+
+        (print ? err : out).println(summary(imported, duplicates, addresses.size(), exported,
+                (System.nanoTime() - start) / 1_000_000));
+        return OK;
+    }
+
+    /**
+     * @param file a file
+     * @return true if the file is csv, by its extension
+     */
+    private static boolean isCsv(Path file) {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        return name.endsWith(".csv") || name.endsWith(".csv.gz");
+    }
+
+    /**
+     * Creates the summary of a run as one line of JSON.
+     *
+     * @param imported addresses added to the register
+     * @param duplicates duplicate addresses skipped
+     * @param matched addresses matching the query
+     * @param exported summary of the export, or null
+     * @param millis time used in milliseconds
+     * @return the summary
+     */
+    static String summary(int imported, int duplicates, int matched, ExportSummary exported, long millis) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"imported\":").append(imported)
+                .append(",\"duplicates\":").append(duplicates)
+                .append(",\"matched\":").append(matched);
+        if (exported != null) {
+            json.append(",\"exported\":").append(exported.getRows())
+                    .append(",\"bytes\":").append(exported.getBytes())
+                    .append(",\"megabytesPerSecond\":")
+                    .append(String.format(Locale.ROOT, "%.1f", exported.getMegabytesPerSecond()));
+        }
+        return json.append(",\"millis\":").append(millis).append('}').toString();
+    }
+}
@@ -0,0 +1,56 @@
+package mappe.del3.addressregister.controll.MainController;
+
+import javafx.concurrent.Task;
+import mappe.del3.addressregister.ImportSummary;
+
+/**
+ * Imports a file of addresses on a background thread with an Importer.
+ * The addresses of the file replace the addresses in the register, and
+ * are added in batches while the file is read. Every batch is one bulk
+ * change to the register, so the table shows the first addresses early,
+ * and is updated once per batch instead of once per address. If the file
+ * is not valid, the register is rolled back.
+ *
+ * The message of the task tells how many addresses are added and how many
+ * are added per second. The number of addresses in the file is not known
+ * until it is read, so the progress is indeterminate. If the task is
+ * cancelled, the file is no longer read, and the addresses already added
+ * stay in the register.
+ *
+ * @author Sindre Glomnes
+ * @version 2021-05-14
+ */
+class ImportTask extends Task<ImportSummary> {
+    private static final int BATCH_SIZE = 50_000; // Addresses added to the register at once
+
+    private final Importer importer = new Importer(); // Adds the addresses, and rolls back on errors
+    private final Importer.Reader reader; // Reads the addresses of the file
+
+    /**
+     * Constructor
+     *
+     * @param reader reads the addresses of the file, called on the background thread
+     */
+    ImportTask(Importer.Reader reader) {
+        this.reader = reader;
+    }
+
+    @Override
+    protected ImportSummary call() throws Exception {
+        updateMessage("Reading file...");
+        updateProgress(-1, 1);
+        long start = System.nanoTime();
+        return importer.run(reader, BATCH_SIZE, this::isCancelled, done -> {
+            double seconds = Math.max((System.nanoTime() - start) / 1e9, 1e-3);
+            updateMessage(String.format("Imported %,d addresses (%,.0f rows/s)", done, done / seconds));
+        });
+    }
+
+    /**
+     * @return the addresses added and skipped so far, also
+     * when the task was cancelled, or nothing if it failed
+     */
+    ImportSummary getSummary() {
+        return importer.getSummary();
+    }
+}
@@ -0,0 +1,97 @@
+package mappe.del3.addressregister.controll.MainController;
+
+import mappe.del3.addressregister.Address;
+import mappe.del3.addressregister.AddressRegister;
+import mappe.del3.addressregister.ImportSummary;
+import mappe.del3.addressregister.RegisterSnapshot;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+/**
+ * Replaces the addresses in the register with the addresses of a file,
+ * without JavaFX, so ImportTask only has to show the progress.
+ *
+ * The register is cleared, and the addresses are added in batches while
+ * the file is read, so the first addresses are shown early. The file is
+ * only known to be valid when the whole file is read, since an export is
+ * checked by its trailer at the end. If the read fails, the register is
+ * rolled back to the addresses it had before the import, so an invalid or
+ * incomplete file never leaves a partly imported register. A cancelled
+ * import keeps the addresses already added.
+ *
+ * @author Sindre Glomnes
+ * @version 2021-05-14
+ */
+class Importer {
+    private final AddressRegister register = AddressRegister.getInstance(); // The register imported to
+    private volatile int accepted; // Addresses added so far
+    private volatile int duplicates; // Duplicate addresses skipped so far
+
+    /**
+     * Reads the addresses of a file in batches.
+     */
+    interface Reader {
+
+        /**
+         * @param batchSize number of addresses in each batch
+         * @param batches receives each batch while the file is read
+         * @return the number of addresses read
+         * @throws IOException if the file could not be read
+         */
+        int read(int batchSize, Consumer<List<Address>> batches) throws IOException;
+    }
+
+    /**
+     * Imports a file. Changes made to the register by others during the
+     * import are lost if the import is rolled back.
+     *
+     * @param reader reads the addresses of the file
+     * @param batchSize addresses added to the register at once
+     * @param cancelled tells if the import is cancelled, checked before each batch
+     * @param progress told the number of addresses imported after each batch
+     * @return the addresses added and skipped
+     * @throws IOException if the file could not be read, and the register was rolled back
+     * @throws IllegalArgumentException if a line is not valid, and the register was rolled back
+     * @throws CancellationException if the import was cancelled
+     */
+    ImportSummary run(Reader reader, int batchSize, BooleanSupplier cancelled, IntConsumer progress)
+            throws IOException {
+        // The snapshot is not changed by the clear, so it keeps the addresses for a roll back
+        RegisterSnapshot previous = register.snapshot();
+        register.clearRegister();
+        try {
+            reader.read(batchSize, batch -> {
+                // Stops the read of the file, not only the adding
+                if (cancelled.getAsBoolean()) {
+                    throw new CancellationException();
+                }
+                ImportSummary added = register.addAll(batch);
+                accepted += added.getAccepted();
+                duplicates += added.getDuplicates();
+                progress.accept(accepted + duplicates);
+            });
+        } catch (IOException | RuntimeException e) {
+            if (!(e instanceof CancellationException)) {
+                register.clearRegister();
+                register.addAll(previous);
+                accepted = 0;
+                duplicates = 0;
+            }
+            throw e;
+        }
+        return getSummary();
+    }
+
+    /**
+     * @return the addresses added and skipped so far, also
+     * when the import was cancelled, or nothing if it was rolled back
+     */
+    ImportSummary getSummary() {
+        return new ImportSummary(accepted, duplicates);
+    }
+}
@@ -4,11 +4,20 @@ import javafx.scene.control.Alert;
 import javafx.scene.control.ButtonType;
 import mappe.del3.addressregister.Address;
 import mappe.del3.addressregister.AddressRegister;
+import mappe.del3.addressregister.ImportSummary;
+import mappe.del3.addressregister.percistence.ExportSummary;
 import mappe.del3.addressregister.percistence.FileManagement;
+import mappe.del3.addressregister.percistence.Journal;
 import mappe.del3.addressregister.ui.Factory;
 import mappe.del3.addressregister.ui.AddressDialog;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Optional;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * The main controller of the application. All mayor interactions (action events) from the
@@ -21,6 +30,11 @@ public class MainController {
 
     private final AddressRegister register = AddressRegister.getInstance(); // accesses the static instance of AddressRegister;
     private final FileManagement fileManagement = new FileManagement(); //Creates an instance of fileManagement.
+    private final Path snapshotFile = Paths.get(System.getProperty("user.home"), ".addressregister", "register.snapshot"); // Register saved between runs
+    private final Journal journal = new Journal(snapshotFile); // Saves every change between snapshots
+    private boolean snapshotLoaded; // True if the saved register was loaded, so it may be saved over
+    private ImportTask importTask; // The newest import, only used on the JavaFX thread
+    private static final Logger logger = Logger.getLogger(MainController.class.getName()); // Logs errors when no alert can be shown
 
     /**
      * Adds an address to the address register through the AddressDialog
@@ -40,14 +54,12 @@ public class MainController {
             try {
                 // Creates an address from the result of dialog
                 Address newAddress = result.get();
-                // Tries to add it to register
+                // Tries to add it to register, the tableView is told by the register
                 register.addAddress(newAddress);
             } catch (IllegalArgumentException e) {
                 error(e.getMessage());
             }
         }
-        // updates the list.
-        parent.updateObservableList();
     }
 
     /**
@@ -79,16 +91,12 @@ public class MainController {
                 try {
                     // Creates a new address from result of dialog
                     Address newAddress = result.get();
-                    // Tries to add the address to register
-                    register.addAddress(newAddress);
-                    // Removes the selected address if addAddress does not throw exception
-                    register.removeAddress(selectedAddress);
+                    // Replaces the selected address, the tableView is told by the register
+                    register.replaceAddress(selectedAddress, newAddress);
                 } catch (IllegalArgumentException e) {
                     error(e.getMessage());
                 }
             }
-            //Updates the tableview
-            parent.updateObservableList();
         }
     }
 
@@ -122,40 +130,31 @@ public class MainController {
             // Removes the address from the register.
             if (result.isPresent() && (result.get() == ButtonType.OK)) {
                 try {
+                    // The tableView is told by the register
                     register.removeAddress(selectedAddress);
                 } catch (IllegalArgumentException e) {
                     error(e.getMessage());
                 }
             }
         }
-        // Updates the tableView
-        parent.updateObservableList();
     }
 
     /**
      * Imports a txt file of addresses and adds
      * them to the register. Clears the register
      * from all previous addresses.
-     * Updates the tableView.
-     * Updates the statusbar to "Import successful"
+     * The file is imported in the background, with
+     * its progress shown in the statusbar.
      *
      * @param parent Instance of Factory
      */
     public void importTxt(Factory parent) {
-        try {
-            //Adds all addresses from the arraylist returned from fileManagement class.
-            for (Address m: fileManagement.importTxt(this)) {
-                try {
-                    register.addAddress(m);
-                } catch (IllegalArgumentException e) {
-                    error(e.getMessage());
-                }
-            }
-            parent.updateObservableList();
-            parent.updateStatusBar("Import successful");
-        } catch (Exception e) {
-            parent.updateStatusBar("Import failed");
-            error("File was not imported");
+        if (isImporting()) {
+            return;
+        }
+        File chosen = fileManagement.chooseTxtFile();
+        if (chosen != null) {
+            runImport(parent, (batchSize, batches) -> fileManagement.readTxt(chosen.toPath(), batchSize, batches));
         }
     }
 
@@ -167,9 +166,10 @@ public class MainController {
      */
     public void exportTxt(Factory parent) {
         try {
-             if (fileManagement.exportTxt(this)) {
-                 parent.updateStatusBar("Export successful");
-             }
+            ExportSummary summary = fileManagement.exportTxt();
+            if (summary != null) {
+                parent.updateStatusBar("Export successful (" + summary + ")");
+            }
         } catch (Exception e) {
             parent.updateStatusBar("Export failed");
             error(e.getMessage());
@@ -180,27 +180,65 @@ public class MainController {
      * Imports a csv file of addresses and adds
      * them to the register. Clears the register
      * from all previous addresses.
-     * Updates the tableView.
-     * Updates the statusbar to "Import successful"
+     * The file is imported in the background, with
+     * its progress shown in the statusbar.
      *
      * @param parent Instance of Factory
      */
     public void importCsv(Factory parent) {
-        try {
-            //Adds all addresses from the arraylist returned from fileManagement class.
-            for (Address m: fileManagement.importCsv(this)) {
-                try {
-                    register.addAddress(m);
-                } catch (IllegalArgumentException e) {
-                    error(e.getMessage());
-                }
-            }
-            parent.updateObservableList();
-            parent.updateStatusBar("Import successful");
-        } catch (Exception e) {
-            parent.updateStatusBar("Import failed");
-            error("File was not imported");
+        if (isImporting()) {
+            return;
+        }
+        File chosen = fileManagement.chooseCsvFile();
+        if (chosen != null) {
+            runImport(parent, (batchSize, batches) -> fileManagement.readCsv(chosen.toPath(), batchSize, batches));
+        }
+    }
+
+    /**
+     * Checks if an import is running, and tells the user if it is.
+     * Only one import runs at a time.
+     *
+     * @return true if an import is running
+     */
+    private boolean isImporting() {
+        if (importTask != null && importTask.isRunning()) {
+            error("Wait for the running import to finish, or cancel it.");
+            return true;
         }
+        return false;
+    }
+
+    /**
+     * Reads a file and adds its addresses on a background thread. The
+     * tableView shows the addresses as they are read, and the statusbar
+     * shows the progress and can cancel the import. The statusbar is
+     * updated with the result when the import is done.
+     *
+     * @param parent Instance of Factory
+     * @param reader reads the addresses of the file
+     */
+    private void runImport(Factory parent, Importer.Reader reader) {
+        ImportTask task = new ImportTask(reader);
+        task.setOnSucceeded(event -> {
+            ImportSummary summary = task.getValue();
+            parent.updateStatusBar("Import successful (" + summary + ")");
+            if (summary.getDuplicates() > 0) {
+                error(summary.getDuplicates() + " duplicate addresses were not added.");
+            }
+        });
+        task.setOnCancelled(event -> parent.updateStatusBar("Import cancelled (" + task.getSummary() + ")"));
+        task.setOnFailed(event -> {
+            // The register is rolled back to the addresses it had before the import
+            parent.updateStatusBar("Import failed, the register is unchanged");
+            error("File was not imported: " + task.getException().getMessage());
+        });
+        importTask = task;
+        parent.showProgress(task);
+
+        Thread thread = new Thread(task, "import");
+        thread.setDaemon(true);
+        thread.start();
     }
 
     /**
@@ -211,8 +249,9 @@ public class MainController {
      */
     public void exportCsv(Factory parent) {
         try {
-            if (fileManagement.exportCsv(this)) {
-                parent.updateStatusBar("Export successful");
+            ExportSummary summary = fileManagement.exportCsv();
+            if (summary != null) {
+                parent.updateStatusBar("Export successful (" + summary + ")");
             }
         } catch (Exception e) {
             parent.updateStatusBar("Export failed");
@@ -240,7 +279,46 @@ public class MainController {
      * @param parent Instance of Factory
      */
     public void reset(Factory parent) {
+        // The tableView is told by the register
         register.clearRegister();
-        parent.updateObservableList();
+    }
+
+    /**
+     * Loads the register from the snapshot and the journal of changes
+     * made since it was written, and starts saving every change to the
+     * journal. Updates the tableView and the statusbar.
+     *
+     * @param parent Instance of Factory
+     */
+    public void loadSnapshot(Factory parent) {
+        try {
+            int replayed = journal.start();
+            snapshotLoaded = true;
+            parent.updateStatusBar("Loaded " + register.getAddresses().size() + " addresses"
+                    + (replayed > 0 ? " (" + replayed + " unsaved changes restored)" : ""));
+        } catch (IOException | IllegalArgumentException e) {
+            parent.updateStatusBar("Could not load saved register");
+            error("The saved register could not be loaded: " + e.getMessage()
+                    + "\nThe saved files were kept in " + snapshotFile.getParent()
+                    + " with the ending .unreadable. Changes made now are not saved.");
+        }
+    }
+
+    /**
+     * Saves the register to a snapshot, which is loaded
+     * the next time the application starts, and closes the journal.
+     * Nothing is saved if the saved register could not be loaded, so
+     * it is not replaced by an empty or partial register.
+     */
+    public void saveSnapshot() {
+        if (!snapshotLoaded) {
+            logger.warning("The register is not saved, since the saved register could not be loaded");
+            return;
+        }
+        try {
+            journal.close();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "The register could not be saved", e);
+        }
     }
 }
@@ -0,0 +1,259 @@
+package mappe.del3.addressregister.percistence;
+
+import mappe.del3.addressregister.Address;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes addresses to a txt or csv file. Each address is encoded as UTF-8
+ * straight into a direct buffer, which is written to the file whenever it
+ * is full. The buffer is reused for every address, so an export uses the
+ * same memory no matter how many addresses are written, and the file gets
+ * a few large writes instead of one per field.
+ *
+ * A line has the format: zip code, postal, municipal code, municipality name
+ * and category, separated by tabs in a txt file and by semicolons in a csv
+ * file, and ends with a newline. The file starts with a header line and
+ * ends with a trailer line with the number of addresses and a checksum,
+ * as described in ExportTrailer.
+ *
+ * A file is written to a temporary file next to it, which is forced to the
+ * disk and then moved in place. If the program stops during an export, the
+ * old file is left as it was, instead of being replaced by a part of the
+ * new one.
+ *
+ * A file ending with .gz is compressed with gzip while it is written, at
+ * the chosen compression level. The header, trailer and checksum are part
+ * of the compressed content, so the decompressed file is a normal export.
+ *
+ * The exporter reuses its buffer, so it can only write one file at a time.
+ *
+ * @author Sindre Glomnes
+ * @version 2021-05-14
+ */
+public class AddressExporter {
+    private static final int BUFFER_SIZE = 1 << 20; // Bytes written to the file at once (1 MB)
+    private static final byte NEW_LINE = '\n';
+
+    private final byte separator; // Separates the fields of a line
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE); // Reused buffer of encoded lines
+    private final CRC32 checksum = new CRC32(); // Checksum of the bytes written before the trailer
+    private int compressionLevel = Deflater.DEFAULT_COMPRESSION; // Level of compressed files
+
+    /**
+     * Constructor
+     *
+     * @param separator separates the fields of a line, must be ASCII
+     */
+    public AddressExporter(char separator) {
+        if (separator >= 0x80) {
+            throw new IllegalArgumentException("Separator must be an ASCII character");
+        }
+        this.separator = (byte) separator;
+    }
+
+    /**
+     * @return exporter of tab separated txt files
+     */
+    public static AddressExporter txt() {
+        return new AddressExporter('\t');
+    }
+
+    /**
+     * @return exporter of semicolon separated csv files
+     */
+    public static AddressExporter csv() {
+        return new AddressExporter(';');
+    }
+
+    /**
+     * Sets how hard compressed files are compressed. A higher level
+     * gives a smaller file, but uses more time.
+     *
+     * @param compressionLevel 1 (fastest) to 9 (smallest), 0 for no compression,
+     * or -1 for the default level of gzip
+     */
+    public void setCompressionLevel(int compressionLevel) {
+        if (compressionLevel < Deflater.DEFAULT_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Compression level must be between -1 and 9");
+        }
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * @param file path of a file
+     * @return true if the file is gzip compressed, by its extension
+     */
+    public static boolean isCompressed(Path file) {
+        return file.getFileName().toString().toLowerCase().endsWith(".gz");
+    }
+
+    /**
+     * Writes the addresses to a file, which is replaced if it exists.
+     * The file is only replaced when all addresses are written.
+     * Files ending with .gz are compressed, and the summary then
+     * has the number of bytes before compression.
+     *
+     * @param file path of the file
+     * @param addresses the addresses to write, iterated once
+     * @return the number of addresses and bytes written, and the speed
+     * @throws IOException if the file could not be written
+     */
+    public ExportSummary export(Path file, Iterable<Address> addresses) throws IOException {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        ExportSummary summary;
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            if (isCompressed(file)) {
+                try (GZIPOutputStream gzip = new LeveledGzipOutputStream(Channels.newOutputStream(channel))) {
+                    summary = export(Channels.newChannel(gzip), addresses);
+                    gzip.finish();
+                    channel.force(true);
+                }
+            } else {
+                summary = export(channel, addresses);
+                // The content must be on the disk before the move, or a crash could leave an empty file in place
+                channel.force(true);
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        try {
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return summary;
+    }
+
+    /**
+     * Writes the addresses to a channel. The channel is not closed.
+     *
+     * @param channel the channel written to
+     * @param addresses the addresses to write, iterated once
+     * @return the number of addresses and bytes written, and the speed
+     * @throws IOException if the channel could not be written
+     */
+    public ExportSummary export(WritableByteChannel channel, Iterable<Address> addresses) throws IOException {
+        long start = System.nanoTime();
+        long bytes = 0;
+        int rows = 0;
+        checksum.reset();
+        buffer.clear();
+        putUtf8(ExportTrailer.HEADER);
+        for (Address address : addresses) {
+            String zipCode = address.getZipCode();
+            String postal = address.getPostal();
+            String municipalCode = address.getMunicipalCode();
+            String municipalityName = address.getMunicipalityName();
+            // A char is at most 3 bytes in UTF-8, and the codes are only digits
+            int longest = zipCode.length() + municipalCode.length()
+                    + 3 * (postal.length() + municipalityName.length() + 1) + 5;
+            if (buffer.remaining() < longest) {
+                bytes += flush(channel);
+                if (buffer.remaining() < longest) {
+                    throw new IOException("Address is too long to export: " + address);
+                }
+            }
+            putAscii(zipCode);
+            buffer.put(separator);
+            putUtf8(postal);
+            buffer.put(separator);
+            putAscii(municipalCode);
+            buffer.put(separator);
+            putUtf8(municipalityName);
+            buffer.put(separator);
+            putUtf8(String.valueOf(address.getCategory()));
+            buffer.put(NEW_LINE);
+            rows++;
+        }
+        bytes += flush(channel);
+        // The trailer is not part of its own checksum
+        putUtf8(ExportTrailer.trailer(rows, checksum.getValue()));
+        bytes += flush(channel);
+        return new ExportSummary(rows, bytes, System.nanoTime() - start);
+    }
+
+    /**
+     * Writes the content of the buffer to the channel, and empties the buffer.
+     *
+     * @param channel the channel written to
+     * @return number of bytes written
+     * @throws IOException if the channel could not be written
+     */
+    private int flush(WritableByteChannel channel) throws IOException {
+        buffer.flip();
+        checksum.update(buffer.duplicate());
+        int written = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+        return written;
+    }
+
+    /**
+     * Puts a text of only digits, which is one byte per char.
+     *
+     * @param text the text
+     */
+    private void putAscii(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            buffer.put((byte) text.charAt(i));
+        }
+    }
+
+    /**
+     * Encodes a text as UTF-8 into the buffer.
+     *
+     * @param text the text
+     */
+    private void putUtf8(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | c >> 6));
+                buffer.put((byte) (0x80 | c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length()
+                    && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                buffer.put((byte) (0xF0 | codePoint >> 18));
+                buffer.put((byte) (0x80 | codePoint >> 12 & 0x3F));
+                buffer.put((byte) (0x80 | codePoint >> 6 & 0x3F));
+                buffer.put((byte) (0x80 | codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                buffer.put((byte) '?');
+            } else {
+                buffer.put((byte) (0xE0 | c >> 12));
+                buffer.put((byte) (0x80 | c >> 6 & 0x3F));
+                buffer.put((byte) (0x80 | c & 0x3F));
+            }
+        }
+    }
+
+    /**
+     * Gzip stream compressing at the level of the exporter.
+     */
+    private class LeveledGzipOutputStream extends GZIPOutputStream {
+        LeveledGzipOutputStream(OutputStream out) throws IOException {
+            super(out, 1 << 16);
+            def.setLevel(compressionLevel);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package mappe.del3.addressregister.percistence;
+
+import com.opencsv.CSVReader;
+import mappe.del3.addressregister.Address;
+import mappe.del3.addressregister.AddressFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads csv files of addresses, with the fields of each address
+ * separated by semicolons. Lines starting with # are skipped, and an
+ * exported file is checked to be complete, see ExportTrailer. A file
+ * ending with .gz is decompressed while it is read. The addresses can
+ * also be given to a consumer in batches while the file is read.
+ *
+ * @author Sindre Glomnes
+ * @version 2021-05-14
+ */
+public class CsvReader {
+
+    /**
+     * Reads all addresses from a csv file.
+     *
+     * @param path the csv file
+     * @return the addresses in the order of the file
+     * @throws IOException if the file could not be read, or is an export that is incomplete
+     * @throws IllegalArgumentException if a line is not a valid address
+     */
+    public ArrayList<Address> read(Path path) throws IOException {
+        ArrayList<Address> addresses = new ArrayList<>();
+        read(path, Integer.MAX_VALUE, addresses::addAll);
+        return addresses;
+    }
+
+    /**
+     * Reads a csv file, and gives the addresses to a consumer in batches
+     * while the file is read. A batch is only valid during the call, and
+     * the addresses of an invalid line or an incomplete export may come
+     * after other batches were given.
+     *
+     * @param path the csv file
+     * @param batchSize number of addresses in each batch, except the last
+     * @param batches receives each batch, and may throw to stop the read
+     * @return the number of addresses read
+     * @throws IOException if the file could not be read, or is an export that is incomplete
+     * @throws IllegalArgumentException if a line is not a valid address
+     */
+    public int read(Path path, int batchSize, Consumer<List<Address>> batches) throws IOException {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+        String name = path.getFileName().toString();
+        boolean compressed = AddressExporter.isCompressed(path);
+        int expected = compressed ? -1 : ExportTrailer.verify(path);
+        ArrayList<Address> batch = new ArrayList<>(Math.min(batchSize, 1 << 16));
+        int read = 0;
+        TrailerCheckingInputStream checked = null;
+        try (InputStream file = Files.newInputStream(path)) {
+            InputStream in = file;
+            if (compressed) {
+                // Compressed files are decompressed and checked while they are read
+                checked = new TrailerCheckingInputStream(new GZIPInputStream(file, 1 << 16));
+                in = checked;
+            }
+            CSVReader csvReader = new CSVReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            String[] nextLine;
+            while ((nextLine = csvReader.readNext()) != null) {
+                for (var e: nextLine){
+                    // Skips the header and trailer of an export, and other comments
+                    if (e.isEmpty() || e.charAt(0) == ExportTrailer.COMMENT) {
+                        continue;
+                    }
+                    String[] address = e.split(";");
+                    if (address.length < 5 || address[4].isEmpty()) {
+                        throw new IllegalArgumentException("Line is not a valid address: " + e);
+                    }
+                    batch.add(AddressFactory.create(Integer.parseInt(address[0]), address[1],
+                            Integer.parseInt(address[2]),address[3], address[4].charAt(0)));
+                    if (batch.size() == batchSize) {
+                        batches.accept(Collections.unmodifiableList(batch));
+                        read += batch.size();
+                        batch.clear();
+                    }
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            batches.accept(Collections.unmodifiableList(batch));
+            read += batch.size();
+        }
+        if (checked != null) {
+            expected = checked.finish(name);
+        }
+        ExportTrailer.checkRows(name, expected, read);
+        return read;
+    }
+}
@@ -0,0 +1,56 @@
+package mappe.del3.addressregister.percistence;
+
+/**
+ * Summary of an export. Tells how many addresses and bytes were
+ * written, and how fast the file was written.
+ *
+ * @author Sindre Glomnes
+ * @version 2021-05-14
+ */
+public class ExportSummary {
+    private final int rows; // Number of addresses written
+    private final long bytes; // Number of bytes written
+    private final long nanos; // Time used to write the file
+
+    /**
+     * Constructor. Creates an instance of ExportSummary
+     *
+     * @param rows number of addresses written
+     * @param bytes number of bytes written
+     * @param nanos time used in nanoseconds
+     */
+    public ExportSummary(int rows, long bytes, long nanos) {
+        this.rows = rows;
+        this.bytes = bytes;
+        this.nanos = nanos;
+    }
+
+    // Get methods
+    public int getRows() {
+        return rows;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getNanos() {
+        return nanos;
+    }
+
+    /**
+     * @return megabytes (10^6 bytes) written per second
+     */
+    public double getMegabytesPerSecond() {
+        return bytes / 1e6 / Math.max(nanos / 1e9, 1e-6);
+    }
+
+    /**
+     * String with the number of addresses, size and speed of the export.
+     * @return summary String.
+     */
+    @Override
+    public String toString() {
+        return String.format("%,d addresses, %,.1f MB at %,.1f MB/s", rows, bytes / 1e6, getMegabytesPerSecond());
+    }
+}
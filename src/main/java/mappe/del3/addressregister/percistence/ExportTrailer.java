@@ -0,0 +1,184 @@
+package mappe.del3.addressregister.percistence;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * The first and last line of an exported txt or csv file, which let an
+ * import tell a complete export from one that was cut off.
+ *
+ * An export starts with the header line "#ADDRESSREGISTER 1" and ends with
+ * the trailer line "#END rows=&lt;number of addresses&gt; crc32=&lt;checksum&gt;",
+ * where the checksum is the CRC32 of all bytes before the trailer line, in
+ * hexadecimal. Lines starting with # are skipped by the readers.
+ *
+ * A file with the header but without a valid trailer is rejected after
+ * reading only its first and last bytes. Files without the header, like
+ * files from older versions or other programs, are read as before.
+ * Compressed files can not be read from the end, so they are checked
+ * while they are read, by TrailerCheckingInputStream.
+ *
+ * @author Sindre Glomnes
+ * @version 2021-05-14
+ */
+public final class ExportTrailer {
+    static final String HEADER = "#ADDRESSREGISTER 1\n"; // First line of an export
+    static final String TRAILER_START = "#END rows="; // Start of the last line of an export
+    static final byte COMMENT = '#'; // First byte of a line that is not an address
+    static final int TAIL_SIZE = 128; // Bytes read from the end of the file to find the trailer
+    private static final int WINDOW_SIZE = 1 << 28; // Max bytes mapped at once when checking the checksum
+
+    private ExportTrailer() {
+    }
+
+    /**
+     * Creates the trailer line of an export.
+     *
+     * @param rows number of addresses in the file
+     * @param checksum CRC32 of all bytes before the trailer
+     * @return the trailer line, with line break
+     */
+    static String trailer(int rows, long checksum) {
+        return TRAILER_START + rows + " crc32=" + String.format("%08x", checksum) + "\n";
+    }
+
+    /**
+     * Checks that an exported file is complete, by its trailer line and its
+     * checksum. The addresses are not parsed, so the number of rows must be
+     * checked by the reader.
+     *
+     * @param file the file
+     * @return the number of addresses in the trailer, or -1 if the file is not an export
+     * @throws IOException if the file could not be read, or is an export that is
+     * incomplete or changed
+     */
+    public static int verify(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            byte[] header = HEADER.getBytes(StandardCharsets.US_ASCII);
+            ByteBuffer start = ByteBuffer.allocate(header.length);
+            readFully(channel, start, 0);
+            if (!isHeader(start.array(), start.position())) {
+                return -1;
+            }
+
+            // The trailer is the last line, so only the end of the file is read to find it.
+            // The tail starts at the latest with the line break of the header.
+            int tailLength = (int) Math.min(TAIL_SIZE, size - header.length + 1);
+            ByteBuffer tail = ByteBuffer.allocate(tailLength);
+            readFully(channel, tail, size - tailLength);
+            Trailer trailer = Trailer.find(file.getFileName().toString(), tail.array(), tail.position());
+            long checked = size - tailLength + trailer.start;
+            if (checksum(channel, checked) != trailer.checksum) {
+                throw new InvalidFileException("File " + file.getFileName() + " is corrupt, the checksum does not match");
+            }
+            return trailer.rows;
+        }
+    }
+
+    /**
+     * @param bytes the first bytes of a file
+     * @param length number of bytes read
+     * @return true if the bytes start with the header of an export
+     */
+    static boolean isHeader(byte[] bytes, int length) {
+        byte[] header = HEADER.getBytes(StandardCharsets.US_ASCII);
+        return length >= header.length
+                && ByteBuffer.wrap(bytes, 0, header.length).equals(ByteBuffer.wrap(header));
+    }
+
+    /**
+     * Checks that the number of addresses read matches the trailer.
+     *
+     * @param name name of the file, used in the error message
+     * @param expected number of addresses in the trailer, or -1 if the file is not an export
+     * @param read number of addresses read
+     * @throws IOException if the numbers do not match
+     */
+    static void checkRows(String name, int expected, int read) throws IOException {
+        if (expected >= 0 && expected != read) {
+            throw new InvalidFileException("File " + name + " has " + read
+                    + " addresses, but the export wrote " + expected);
+        }
+    }
+
+    /**
+     * Calculates the CRC32 of the first bytes of a file.
+     *
+     * @param channel the file
+     * @param length number of bytes
+     * @return the checksum
+     * @throws IOException if the file could not be read
+     */
+    private static long checksum(FileChannel channel, long length) throws IOException {
+        CRC32 checksum = new CRC32();
+        for (long position = 0; position < length; position += WINDOW_SIZE) {
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                    Math.min(WINDOW_SIZE, length - position));
+            checksum.update(window);
+        }
+        return checksum.getValue();
+    }
+
+    /**
+     * Reads from a position until the buffer is full or the file ends.
+     *
+     * @param channel the file
+     * @param buffer the buffer filled
+     * @param position position in the file
+     * @throws IOException if the file could not be read
+     */
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * The trailer line found at the end of a file.
+     */
+    static class Trailer {
+        final int start; // Index of the trailer line in the end of the file
+        final int rows; // Number of addresses written
+        final long checksum; // CRC32 of the bytes before the trailer line
+
+        private Trailer(int start, int rows, long checksum) {
+            this.start = start;
+            this.rows = rows;
+            this.checksum = checksum;
+        }
+
+        /**
+         * Finds the trailer line in the end of a file.
+         *
+         * @param name name of the file, used in error messages
+         * @param tail the last bytes of the file, starting at the latest with the line break before the trailer
+         * @param length number of bytes in the tail
+         * @return the trailer
+         * @throws IOException if the tail does not end with a valid trailer line
+         */
+        static Trailer find(String name, byte[] tail, int length) throws IOException {
+            String tailText = new String(tail, 0, length, StandardCharsets.ISO_8859_1);
+            int index = tailText.lastIndexOf("\n" + TRAILER_START);
+            if (!tailText.endsWith("\n") || index < 0) {
+                throw new InvalidFileException("File " + name + " is incomplete, the export did not finish");
+            }
+            String trailer = tailText.substring(index + 1 + TRAILER_START.length(), tailText.length() - 1);
+            try {
+                String[] parts = trailer.split(" crc32=");
+                return new Trailer(index + 1, Integer.parseInt(parts[0]), Long.parseLong(parts[1], 16));
+            } catch (RuntimeException e) {
+                throw new InvalidFileException("File " + name + " has an invalid trailer line");
+            }
+        }
+    }
+}
@@ -1,17 +1,15 @@
 package mappe.del3.addressregister.percistence;
 
-import com.opencsv.CSVReader;
 import javafx.stage.FileChooser;
 import mappe.del3.addressregister.Address;
 import mappe.del3.addressregister.AddressRegister;
-import mappe.del3.addressregister.controll.MainController.MainController;
 import mappe.del3.addressregister.ui.FileDialog;
 
 import java.io.*;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.ArrayList;
+import java.util.List;
+import java.util.OptionalInt;
+import java.util.function.Consumer;
 
 /**
  * FileManagement is used for import and export of
@@ -21,23 +19,41 @@ import java.util.ArrayList;
  * @version 2021-05-14
  */
 public class FileManagement {
-    private final ArrayList<Address> addressList = new ArrayList<>(); // List of addresses imported.
     private FileChooser fileChooser; // Chooses filepath
     private File file; // The txt file of addresses
-    private FileReader reader; // Reads files
     private final FileDialog dialog = new FileDialog(); // Instance of FileDialog
     private final AddressRegister addressRegister = AddressRegister.getInstance(); // Instance of addressRegister singleton
 
     /**
-     * Chooses a txt UTF-8 file from the computer to read. Returns its addresses
-     * as a Arraylist. File chooser dialog only accepts txt files, and will therefore
-     * show a warning alert if a not valid file is chosen.
+     * Chooses a txt file to import. Asks before the addresses in the register
+     * are overwritten. The register is not changed, it is cleared by the import.
+     * Shows a warning alert while a file that is not txt is chosen.
      *
-     * @param mainController Instance of MainController
-     * @return Arraylist of addresses.
+     * @return the chosen file, or null if the user cancelled
      */
-    public ArrayList<Address> importTxt(MainController mainController) {
+    public File chooseTxtFile() {
+        return chooseImportFile(new FileChooser.ExtensionFilter("TXT files (*.txt, *.txt.gz)", "*.txt", "*.txt.gz"), ".txt");
+    }
+
+    /**
+     * Chooses a csv file to import. Asks before the addresses in the register
+     * are overwritten. The register is not changed, it is cleared by the import.
+     * Shows a warning alert while a file that is not csv is chosen.
+     *
+     * @return the chosen file, or null if the user cancelled
+     */
+    public File chooseCsvFile() {
+        return chooseImportFile(new FileChooser.ExtensionFilter("CSV Files (*.csv, *.csv.gz)", "*.csv", "*.csv.gz"), ".csv");
+    }
 
+    /**
+     * Chooses a file to import with the given extension.
+     *
+     * @param filter filter of the file chooser
+     * @param extension extension the file must have
+     * @return the chosen file, or null if the user cancelled
+     */
+    private File chooseImportFile(FileChooser.ExtensionFilter filter, String extension) {
         // Checks if the register contains any addresses to be overwritten.
         if (addressRegister.getAddresses().size() != 0) {
             // Dialog for overwriting.
@@ -46,183 +62,83 @@ public class FileManagement {
             }
         }
 
-        //Clears the addressRegister from all addresses.
-        addressRegister.clearRegister();
-        //Clears the arraylist from previous imports.
-        addressList.clear();
-
         //Chooses a file from the file chooser dialog.
-        FileChooser.ExtensionFilter txtFilter = new FileChooser.ExtensionFilter("TXT files (*.txt)", "*.txt");
         fileChooser = new FileChooser();
         // Sets default name of file
         fileChooser.setInitialFileName("AddressRegister");
-
-        fileChooser.getExtensionFilters().add(txtFilter);
+        fileChooser.getExtensionFilters().add(filter);
 
         // Stops if the fileChooser dialog is canceled.
         if ((file = fileChooser.showOpenDialog(null)) == null) {
             return null;
         }
 
-        // Shows warning alert while the selected file is not txt
+        // Shows warning alert while the selected file has the wrong extension
         // Should be unnecessary, but is added as an extra barrier
-        while (!(String.valueOf(file).contains(".txt"))) {
+        while (!(String.valueOf(file).contains(extension))) {
             if (dialog.notValid()) {
                 return null;
             }
-            file = fileChooser.showOpenDialog(null);
-        }
-
-        try {
-            BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.ISO_8859_1));
-
-            String[] Address;
-            String str;
-            // Repeats for every line with text in the file
-            while ((str = in.readLine()) != null) {
-                //Splits the text into array of every variable in address.
-                Address = str.split("\t");
-
-                // creates a new address from the array, and adds it to the arraylist.
-                addressList.add(new Address(Integer.parseInt(Address[0].replaceAll("\\uFEFF", "")),Address[1]
-                        ,Integer.parseInt(Address[2].replace("\\uFEFF", "")),Address[3],Address[4].charAt(0)));
+            if ((file = fileChooser.showOpenDialog(null)) == null) {
+                return null;
             }
-            return addressList;
-        } catch (IOException e) {
-            mainController.error(e.getMessage());
         }
-        return null;
+        return file;
     }
 
     /**
-     * Exports the addresses from the application to a txt file.
-     * The filename and filepath is determined by the user from a dialog.
-     * Shows warning alert if overwriting a old file.
+     * Reads the addresses of a txt file through a memory-mapped buffer,
+     * or decompresses it while reading if the file ends with .gz, and
+     * gives them to a consumer in batches while the file is read.
+     * Does not show any dialogs, so it can be called from a background thread.
      *
-     * @param mainController Instance of MainController.
+     * @param path the txt file
+     * @param batchSize number of addresses in each batch
+     * @param batches receives each batch, and may throw to stop the read
+     * @return the number of addresses read
+     * @throws IOException if the file could not be read
+     * @throws IllegalArgumentException if a line is not a valid address
      */
-    public boolean exportTxt(MainController mainController) {
-
-        // Opens dialog for filepath with default filename of "newFile.txt"
-        fileChooser = new FileChooser();
-
-        // Sets default name of file
-        fileChooser.setInitialFileName("AddressRegister");
-
-        // Filter for .txt
-        FileChooser.ExtensionFilter txtFilter = new FileChooser.ExtensionFilter("TXT files (*.txt)", "*.txt");
-
-        // File is always .txt
-        fileChooser.getExtensionFilters().add(txtFilter);
-
-        // Stops if the fileChooser dialog is canceled.
-        if ((file = fileChooser.showSaveDialog(null)) == null) {
-            return false;
-        }
-
-
-        try (FileOutputStream fos = new FileOutputStream(file);
-             OutputStreamWriter osw = new OutputStreamWriter(fos, StandardCharsets.UTF_8);
-             BufferedWriter writer = new BufferedWriter(osw)
-        ) {
-
-            //Adds lines to the file for every address in the register.
-            for (Address m : addressRegister.getAddresses()) {
-                writer.append(m.getZipCode());
-                writer.append("\t");
-                writer.append(m.getPostal());
-                writer.append("\t");
-                writer.append(String.valueOf(m.getMunicipalCode()));
-                writer.append("\t");
-                writer.append(m.getMunicipalityName());
-                writer.append("\t");
-                writer.append(m.getCategory());
-                writer.newLine();
-            }
-
-        } catch (IOException e) {
-            mainController.error(e.getMessage());
-        }
-        return true;
+    public int readTxt(Path path, int batchSize, Consumer<List<Address>> batches) throws IOException {
+        // A new reader for each file, since a reader is not safe to share between threads
+        return new TxtReader().read(path, batchSize, batches);
     }
 
     /**
-     * Chooses a csv file from the computer to read. Returns its addresses
-     * as a Arraylist. File chooser dialog only accepts csv files, and will therefore
-     * show a warning alert if a not valid file is chosen.
+     * Reads the addresses of a csv file, with the fields of each address
+     * separated by semicolons, and gives them to a consumer in batches
+     * while the file is read. A file ending with .gz is decompressed
+     * while it is read. Does not show any dialogs, so it can be called
+     * from a background thread.
      *
-     * @param mainController Instance of MainController
-     * @return Arraylist of addresses.
+     * @param path the csv file
+     * @param batchSize number of addresses in each batch
+     * @param batches receives each batch, and may throw to stop the read
+     * @return the number of addresses read
+     * @throws IOException if the file could not be read
+     * @throws IllegalArgumentException if a line is not a valid address
      */
-    public ArrayList<Address> importCsv(MainController mainController) {
-
-        // Checks if the register contains any addresses to be overwritten.
-        if (addressRegister.getAddresses().size() != 0) {
-            // Dialog for overwriting.
-            if (dialog.overWrite()) {
-                return null;
-            }
-        }
-
-        //Clears the addressRegister from all addresses.
-        addressRegister.clearRegister();
-
-        //Clears the arraylist from previous imports.
-        addressList.clear();
-
-        // Filter for only choosing .csv files
-        FileChooser.ExtensionFilter csvFilter = new FileChooser.ExtensionFilter("CSV Files", "*.csv");
-
-        //Chooses a file from the file chooser dialog.
-        fileChooser = new FileChooser();
-        fileChooser.getExtensionFilters().add(csvFilter);
+    public int readCsv(Path path, int batchSize, Consumer<List<Address>> batches) throws IOException {
+        return new CsvReader().read(path, batchSize, batches);
+    }
 
-        // Stops if the fileChooser dialog is canceled.
-        if ((file = fileChooser.showOpenDialog(null)) == null) {
+    /**
+     * Exports the addresses from the application to a txt file.
+     * The filename and filepath is determined by the user from a dialog.
+     * Shows warning alert if overwriting a old file.
+     *
+     * @return the number of addresses written and the speed, or null if the user cancelled
+     * @throws IOException if the file could not be written
+     */
+    public ExportSummary exportTxt() throws IOException {
+        AddressExporter exporter = AddressExporter.txt();
+        File chosen = chooseExportFile(exporter, new FileChooser.ExtensionFilter("TXT files (*.txt)", "*.txt"),
+                new FileChooser.ExtensionFilter("Compressed TXT files (*.txt.gz)", "*.txt.gz"));
+        if (chosen == null) {
             return null;
         }
-
-        // Shows warning alert while the selected file is not txt
-        // Should be unnecessary, but is added as an extra barrier
-        while (!(String.valueOf(file).contains(".csv"))) {
-            try {
-                if (dialog.notValid()) {
-                    return null;
-                }
-            } catch (Exception ignored) {}
-
-            file = fileChooser.showOpenDialog(null);
-        }
-
-        try {
-            reader = new FileReader(file);
-        } catch (Exception e) {
-            mainController.error(e.getMessage());
-        }
-
-        CSVReader csvReader = new CSVReader(reader);
-        addressList.clear();
-
-        try {
-            String[] nextLine;
-            while ((nextLine = csvReader.readNext()) != null) {
-                for (var e: nextLine){
-                    String[] address = e.split(";");
-                    try {
-                        addressList.add(new Address(Integer.parseInt(address[0]), address[1],
-                                Integer.parseInt(address[2]),address[3], address[4].charAt(0)));
-                    } catch (IllegalArgumentException i) {
-                        mainController.error(i.getMessage());
-                        // breaks the loop in case there are thousands of illegal addresses which throws
-                        // All addresses may be in wrong format.
-                        return null;
-                    }
-                }
-            }
-        } catch (IOException e) {
-            mainController.error(e.getMessage());
-        }
-        return addressList;
+        //Writes a snapshot of the register, so the register can be changed while the file is written.
+        return exporter.export(chosen.toPath(), addressRegister.snapshot());
     }
 
     /**
@@ -230,48 +146,52 @@ public class FileManagement {
      * The filename and filepath is determined by the user from a dialog.
      * Shows warning alert if overwriting a old file.
      *
-     * @param mainController Instance of MainController.
+     * @return the number of addresses written and the speed, or null if the user cancelled
+     * @throws IOException if the file could not be written
      */
-    public boolean exportCsv(MainController mainController) {
-        try {
-            // Chooses file
-            fileChooser = new FileChooser();
-            // Default name
-            fileChooser.setInitialFileName("AddressRegister");
-            // Filter for .csv
-            FileChooser.ExtensionFilter csvFilter = new FileChooser.ExtensionFilter("CSV Files", "*.csv");
-            // File is always .csv
-            fileChooser.getExtensionFilters().add(csvFilter);
-
-            // Stops if the fileChooser dialog is canceled.
-            if ((file = fileChooser.showSaveDialog(null)) == null) {
-                return false;
-            }
+    public ExportSummary exportCsv() throws IOException {
+        AddressExporter exporter = AddressExporter.csv();
+        File chosen = chooseExportFile(exporter, new FileChooser.ExtensionFilter("CSV Files", "*.csv"),
+                new FileChooser.ExtensionFilter("Compressed CSV Files (*.csv.gz)", "*.csv.gz"));
+        if (chosen == null) {
+            return null;
+        }
+        // Uses a snapshot, so the register can be changed while the file is written.
+        return exporter.export(chosen.toPath(), addressRegister.snapshot());
+    }
 
-            // Prints the list to the file in csv format
-            PrintWriter printWriter = new PrintWriter(file);
-            StringBuilder sb = new StringBuilder();
-            for (Address p: addressRegister.getAddresses()) {
-                sb.append(p.getZipCode());
-                sb.append(";");
-                sb.append(p.getPostal());
-                sb.append(";");
-                sb.append(p.getMunicipalCode());
-                sb.append(";");
-                sb.append(p.getMunicipalityName());
-                sb.append(";");
-                sb.append(p.getCategory());
-                sb.append("\n");
+    /**
+     * Chooses the file to export to. For a compressed file, the
+     * user also chooses the compression level of the exporter.
+     *
+     * @param exporter the exporter of the file
+     * @param filter filter of the file chooser
+     * @param compressedFilter filter of the file chooser for compressed files
+     * @return the chosen file, or null if the user cancelled
+     */
+    private File chooseExportFile(AddressExporter exporter, FileChooser.ExtensionFilter filter,
+                                  FileChooser.ExtensionFilter compressedFilter) {
+        fileChooser = new FileChooser();
+        // Sets default name of file
+        fileChooser.setInitialFileName("AddressRegister");
+        // The file always has the extension of the filter
+        fileChooser.getExtensionFilters().addAll(filter, compressedFilter);
+        // Stops if the fileChooser dialog is canceled.
+        File chosen = fileChooser.showSaveDialog(null);
+        if (chosen == null) {
+            return null;
+        }
+        // The compressed filter only adds the extension on some platforms
+        if (fileChooser.getSelectedExtensionFilter() == compressedFilter && !AddressExporter.isCompressed(chosen.toPath())) {
+            chosen = new File(chosen.getPath() + ".gz");
+        }
+        if (AddressExporter.isCompressed(chosen.toPath())) {
+            OptionalInt level = dialog.compressionLevel();
+            if (!level.isPresent()) {
+                return null;
             }
-            printWriter.write(sb.toString());
-            printWriter.close();
-        } catch (IOException e) {
-            mainController.error(e.getMessage());
+            exporter.setCompressionLevel(level.getAsInt());
         }
-        return true;
+        return chosen;
     }
-
-
-
-
 }
@@ -0,0 +1,23 @@
+package mappe.del3.addressregister.percistence;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a file could be read, but is an export that is
+ * incomplete or changed, so its addresses can not be trusted.
+ *
+ * @author Sindre Glomnes
+ * @version 2021-05-14
+ */
+public class InvalidFileException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructor
+     *
+     * @param message what is wrong with the file
+     */
+    public InvalidFileException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,597 @@
+package mappe.del3.addressregister.percistence;
+
+import mappe.del3.addressregister.Address;
+import mappe.del3.addressregister.AddressFactory;
+import mappe.del3.addressregister.AddressRegister;
+import mappe.del3.addressregister.RegisterEvent;
+import mappe.del3.addressregister.RegisterListener;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of the changes to the register, which together
+ * with the snapshot keeps every change when the application stops
+ * without saving.
+ *
+ * Every added, removed and replaced address, and every clear of the
+ * register, is appended to the journal as a small record. The records
+ * are written by a background thread, which writes all records waiting
+ * at once and forces them to the disk with one call. A change waits until
+ * its record is on the disk, so changes made at the same time by several
+ * threads share one force of the disk. The records are appended while the
+ * register is locked, so they are in the order the changes were made, even
+ * when several threads change the register. Bulk adds, like imports, are not
+ * written as records, since they are saved faster by a new snapshot.
+ *
+ * Record format (big endian): length of the content (int), CRC32 of the
+ * content (int) and the content: the type (byte) followed by one or two
+ * addresses, each as zip code (short), municipal code (short), category
+ * (byte), postal and municipality name (modified UTF-8). A record cut off
+ * by a crash is found by its length or checksum, and the journal is read
+ * up to it.
+ *
+ * Compaction writes a new snapshot of the register and removes the journal.
+ * The journal is first moved aside, so new records go to a new journal
+ * while the snapshot is written in the background. Starting the journal
+ * loads the snapshot and replays both journals on top of it. The records
+ * set the state of single addresses, so a record replayed on a snapshot
+ * that already has its change gives the same register.
+ *
+ * @author Sindre Glomnes
+ * @version 2021-05-14
+ */
+public class Journal implements RegisterListener, Closeable {
+    private static final Logger logger = Logger.getLogger(Journal.class.getName()); // Logs errors of the background threads
+    private static final byte ADDED = 1;
+    private static final byte REMOVED = 2;
+    private static final byte REPLACED = 3;
+    private static final byte CLEARED = 4;
+    private static final int HEADER_SIZE = 8; // Length and checksum of a record
+
+    private final AddressRegister register = AddressRegister.getInstance(); // The register journaled
+    private final Path journalFile; // Records since the last compaction
+    private final Path compactingFile; // Records of a compaction that has not finished
+    private final Path snapshotFile; // The register at the last compaction
+    private long compactionSize = 1 << 22; // Size of the journal that starts a compaction (4 MB)
+
+    private final Object lock = new Object(); // Guards the fields below
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream(); // Records not written yet
+    private final ByteArrayOutputStream content = new ByteArrayOutputStream(); // Reused content of one record
+    private final DataOutputStream contentOut = new DataOutputStream(content); // Writes the content of a record
+    private final CRC32 checksum = new CRC32(); // Reused checksum of one record
+    private long appended; // Number of records appended
+    private long durable; // Number of records forced to the disk
+    private boolean compactionRequested; // True if a compaction should start
+    private boolean compacting; // True while a snapshot is written
+    private boolean closed; // True when no more records are accepted
+    private IOException failure; // Error of the writer, which stops the journal
+
+    private boolean started; // True if the saved register was loaded and the journal started
+    private FileChannel channel; // The open journal, only used by the writer thread after start
+    private Thread writer; // Writes and forces the pending records
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "journal-compaction");
+        thread.setDaemon(true);
+        return thread;
+    }); // Writes snapshots in the background
+
+    /**
+     * Constructor
+     *
+     * @param snapshotFile path of the snapshot, the journal is kept next to it
+     */
+    public Journal(Path snapshotFile) {
+        this.snapshotFile = snapshotFile;
+        this.journalFile = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".journal");
+        this.compactingFile = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".journal.compacting");
+    }
+
+    /**
+     * Sets the size of the journal that starts a compaction.
+     *
+     * @param compactionSize size in bytes
+     */
+    public void setCompactionSize(long compactionSize) {
+        if (compactionSize <= 0) {
+            throw new IllegalArgumentException("Compaction size must be positive");
+        }
+        this.compactionSize = compactionSize;
+    }
+
+    /**
+     * Loads the snapshot and replays the journals on top of it, and then
+     * starts journaling the changes to the register. Starts a compaction
+     * if any records were replayed.
+     *
+     * If the snapshot or a journal can not be read, the saved files are
+     * moved aside with the ending ".unreadable", so they are kept for
+     * recovery and are not saved over, and the journal is not started.
+     *
+     * @return the number of records replayed
+     * @throws IOException if the snapshot or the journal could not be read
+     */
+    public int start() throws IOException {
+        int replayed = 0;
+        try {
+            if (Files.exists(snapshotFile)) {
+                register.addAll(new SnapshotReader().read(snapshotFile));
+            }
+            if (Files.exists(compactingFile)) {
+                replayed += replay(compactingFile);
+            }
+            if (Files.exists(journalFile)) {
+                replayed += replay(journalFile);
+            }
+        } catch (IOException | RuntimeException e) {
+            moveAside(e);
+            throw e;
+        }
+
+        if (journalFile.getParent() != null) {
+            Files.createDirectories(journalFile.getParent());
+        }
+        channel = FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        SnapshotWriter.forceDirectory(journalFile.toAbsolutePath().getParent());
+        register.addListener(this);
+        writer = new Thread(this::write, "journal");
+        writer.setDaemon(true);
+        writer.start();
+        started = true;
+        if (replayed > 0) {
+            requestCompaction();
+        }
+        return replayed;
+    }
+
+    /**
+     * Moves the snapshot and the journals aside, after they could not be
+     * read. A file that already has the ending is not replaced, so the
+     * time of the move is added to the name.
+     *
+     * @param cause the error that made the files unreadable, which gets
+     * the errors of the moves
+     */
+    private void moveAside(Exception cause) {
+        String ending = ".unreadable-" + System.currentTimeMillis();
+        for (Path file : new Path[] {snapshotFile, compactingFile, journalFile}) {
+            if (Files.exists(file)) {
+                Path aside = file.resolveSibling(file.getFileName() + ending);
+                try {
+                    Files.move(file, aside);
+                    logger.warning("Unreadable file " + file + " was moved to " + aside);
+                } catch (IOException e) {
+                    cause.addSuppressed(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Appends a record of a change. Called while the register is locked,
+     * so the records are in the order the changes were made. Bulk adds
+     * start a compaction instead.
+     *
+     * @param event the change
+     */
+    @Override
+    public void registerChangedLocked(RegisterEvent event) {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            switch (event.getType()) {
+                case ADDED:
+                    append(ADDED, event.getAddress(), null);
+                    break;
+                case REMOVED:
+                    append(REMOVED, event.getAddress(), null);
+                    break;
+                case REPLACED:
+                    append(REPLACED, event.getPrevious(), event.getAddress());
+                    break;
+                case CLEARED:
+                    append(CLEARED, null, null);
+                    break;
+                default:
+                    compactionRequested = true;
+                    lock.notifyAll();
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Waits until the record of a change is on the disk, after the
+     * register is unlocked. Records appended by other threads in the
+     * meantime are forced with it.
+     *
+     * @param event the change
+     */
+    @Override
+    public void registerChanged(RegisterEvent event) {
+        if (event.getType() == RegisterEvent.Type.BULK_ADDED) {
+            return;
+        }
+        try {
+            flush();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "A change to the register was not saved", e);
+        }
+    }
+
+    /**
+     * Adds a record to the pending records. Must hold the lock.
+     *
+     * @param type type of the record
+     * @param address the address of the change, or null
+     * @param replacement the new address of a replace, or null
+     */
+    private void append(byte type, Address address, Address replacement) {
+        try {
+            content.reset();
+            contentOut.writeByte(type);
+            if (address != null) {
+                writeAddress(address);
+            }
+            if (replacement != null) {
+                writeAddress(replacement);
+            }
+            checksum.reset();
+            checksum.update(content.toByteArray());
+            DataOutputStream out = new DataOutputStream(pending);
+            out.writeInt(content.size());
+            out.writeInt((int) checksum.getValue());
+            content.writeTo(pending);
+        } catch (IOException e) {
+            // Writing to a byte array does not fail
+            throw new IllegalStateException(e);
+        }
+        lock.notifyAll();
+        appended++;
+    }
+
+    /**
+     * Writes an address to the content of a record.
+     *
+     * @param address the address
+     * @throws IOException never, the content is in memory
+     */
+    private void writeAddress(Address address) throws IOException {
+        contentOut.writeShort(Integer.parseInt(address.getZipCode()));
+        contentOut.writeShort(Integer.parseInt(address.getMunicipalCode()));
+        contentOut.writeByte(address.getCategory());
+        contentOut.writeUTF(address.getPostal());
+        contentOut.writeUTF(address.getMunicipalityName());
+    }
+
+    /**
+     * Waits until a record is on the disk.
+     *
+     * @param record the number of the record
+     * @throws IOException if the journal failed before the record was written
+     */
+    private void awaitDurable(long record) throws IOException {
+        synchronized (lock) {
+            while (durable < record && failure == null) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while saving the journal", e);
+                }
+            }
+            if (durable < record) {
+                throw failure;
+            }
+        }
+    }
+
+    /**
+     * Waits until all records appended so far are on the disk.
+     *
+     * @throws IOException if the journal failed before the records were written
+     */
+    public void flush() throws IOException {
+        long record;
+        synchronized (lock) {
+            record = appended;
+        }
+        awaitDurable(record);
+    }
+
+    /**
+     * Waits until a running compaction has written its snapshot. A
+     * compaction is started by the writer when it forces the records,
+     * so after flush it has either started or is not needed.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void awaitCompaction() throws InterruptedException {
+        synchronized (lock) {
+            while (compacting) {
+                lock.wait();
+            }
+        }
+    }
+
+    /**
+     * Starts a compaction in the background, unless one is running.
+     */
+    public void requestCompaction() {
+        synchronized (lock) {
+            compactionRequested = true;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Body of the writer thread. Takes all pending records, writes them
+     * with one write and forces them to the disk, and moves the journal
+     * aside when a compaction should start.
+     */
+    private void write() {
+        while (true) {
+            byte[] batch;
+            long records;
+            boolean compact;
+            synchronized (lock) {
+                while (pending.size() == 0 && !closed && !(compactionRequested && !compacting)) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (pending.size() == 0 && closed) {
+                    return;
+                }
+                batch = pending.toByteArray();
+                pending.reset();
+                records = appended;
+                compact = compactionRequested && !compacting && !closed;
+            }
+            try {
+                if (batch.length > 0) {
+                    ByteBuffer buffer = ByteBuffer.wrap(batch);
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    // Only the content is needed, the file times are not
+                    channel.force(false);
+                }
+                compact = compact || channel.size() >= compactionSize;
+                synchronized (lock) {
+                    durable = records;
+                    if (compact && !compacting && !closed) {
+                        compactionRequested = false;
+                        compacting = true;
+                    } else {
+                        compact = false;
+                    }
+                    lock.notifyAll();
+                }
+                if (compact) {
+                    rotate();
+                }
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "The journal could not be written", e);
+                synchronized (lock) {
+                    failure = e;
+                    closed = true;
+                    lock.notifyAll();
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Moves the journal aside, opens a new journal, and writes a snapshot
+     * in the background. When the snapshot is written, the journal that
+     * was moved aside is deleted. If an earlier compaction failed, its
+     * journal is kept, and the journal is not moved.
+     *
+     * @throws IOException if the new journal could not be opened
+     */
+    private void rotate() throws IOException {
+        if (!Files.exists(compactingFile)) {
+            channel.close();
+            Files.move(journalFile, compactingFile);
+            channel = FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+            // Records forced to the new journal are only safe when the new file is in the directory
+            SnapshotWriter.forceDirectory(journalFile.toAbsolutePath().getParent());
+        }
+        compactor.execute(() -> {
+            try {
+                // Changes made after the move are in the snapshot and in the new journal, which is harmless
+                new SnapshotWriter().write(snapshotFile, register.snapshot());
+                Files.deleteIfExists(compactingFile);
+                SnapshotWriter.forceDirectory(compactingFile.toAbsolutePath().getParent());
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "The journal could not be compacted", e);
+            } finally {
+                synchronized (lock) {
+                    compacting = false;
+                    lock.notifyAll();
+                }
+            }
+        });
+    }
+
+    /**
+     * Stops journaling, and writes a final snapshot so the next start
+     * does not have to replay any records. The journal files are removed
+     * when the snapshot is written. If the journal was not started, the
+     * register was not loaded, and nothing is written.
+     *
+     * @throws IOException if the snapshot could not be written
+     */
+    @Override
+    public void close() throws IOException {
+        register.removeListener(this);
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+        try {
+            if (writer != null) {
+                writer.join();
+            }
+            compactor.shutdown();
+            compactor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while closing the journal", e);
+        }
+        if (!started) {
+            return;
+        }
+        channel.close();
+        // The snapshot is on the disk when written, so the journals are no longer needed
+        new SnapshotWriter().write(snapshotFile, register.snapshot());
+        Files.deleteIfExists(compactingFile);
+        Files.deleteIfExists(journalFile);
+        SnapshotWriter.forceDirectory(journalFile.toAbsolutePath().getParent());
+    }
+
+    /**
+     * Replays the records of a journal on the register. A record cut off
+     * at the end of the file ends the replay, and is removed from the file
+     * so new records are not written after it.
+     *
+     * @param file the journal
+     * @return number of records replayed
+     * @throws IOException if the journal could not be read
+     */
+    private int replay(Path file) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+        CRC32 recordChecksum = new CRC32();
+        int records = 0;
+        int valid = 0;
+        while (buffer.remaining() >= HEADER_SIZE) {
+            int length = buffer.getInt();
+            int expected = buffer.getInt();
+            if (length <= 0 || length > buffer.remaining()) {
+                break;
+            }
+            recordChecksum.reset();
+            recordChecksum.update(buffer.array(), buffer.position(), length);
+            if ((int) recordChecksum.getValue() != expected) {
+                break;
+            }
+            ByteBuffer record = ByteBuffer.wrap(buffer.array(), buffer.position(), length);
+            buffer.position(buffer.position() + length);
+            try {
+                apply(record);
+            } catch (BufferUnderflowException | IllegalArgumentException e) {
+                throw new IOException("Journal record " + records + " is not valid", e);
+            }
+            records++;
+            valid = buffer.position();
+        }
+        if (valid < buffer.limit()) {
+            logger.warning("The journal ended with a record that was not finished, which is removed");
+            try (FileChannel truncated = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                truncated.truncate(valid);
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Applies a record to the register. The record sets the state of the
+     * addresses, so it gives the same result if the register already has
+     * the change.
+     *
+     * @param record the content of the record
+     */
+    private void apply(ByteBuffer record) {
+        byte type = record.get();
+        switch (type) {
+            case ADDED: {
+                Address address = readAddress(record);
+                if (!register.contains(address)) {
+                    register.addAddress(address);
+                }
+                break;
+            }
+            case REMOVED: {
+                Address address = readAddress(record);
+                if (register.contains(address)) {
+                    register.removeAddress(address);
+                }
+                break;
+            }
+            case REPLACED: {
+                Address address = readAddress(record);
+                Address replacement = readAddress(record);
+                boolean hasAddress = register.contains(address);
+                boolean hasReplacement = register.contains(replacement);
+                if (hasAddress && !hasReplacement) {
+                    register.replaceAddress(address, replacement);
+                } else if (hasAddress) {
+                    register.removeAddress(address);
+                } else if (!hasReplacement) {
+                    register.addAddress(replacement);
+                }
+                break;
+            }
+            case CLEARED:
+                register.clearRegister();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown record type " + type);
+        }
+    }
+
+    /**
+     * Reads an address from the content of a record.
+     *
+     * @param record the content of the record
+     * @return the address
+     */
+    private static Address readAddress(ByteBuffer record) {
+        int zipCode = record.getShort();
+        int municipalCode = record.getShort();
+        char category = (char) (record.get() & 0xFF);
+        String postal = readUtf(record);
+        String municipalityName = readUtf(record);
+        return AddressFactory.create(zipCode, postal, municipalCode, municipalityName, category);
+    }
+
+    /**
+     * Reads a string written by DataOutputStream.writeUTF. Names only hold
+     * chars that are the same in modified UTF-8 and standard UTF-8.
+     *
+     * @param record the content of the record
+     * @return the string
+     */
+    private static String readUtf(ByteBuffer record) {
+        int length = record.getShort() & 0xFFFF;
+        if (length > record.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        String text = new String(record.array(), record.arrayOffset() + record.position(), length,
+                StandardCharsets.UTF_8);
+        record.position(record.position() + length);
+        return text;
+    }
+}
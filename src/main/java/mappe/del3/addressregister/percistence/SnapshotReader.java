@@ -0,0 +1,87 @@
+package mappe.del3.addressregister.percistence;
+
+import mappe.del3.addressregister.Address;
+import mappe.del3.addressregister.AddressFactory;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.zip.CRC32;
+
+/**
+ * Reads a binary snapshot file written by SnapshotWriter.
+ * The checksum is validated before any address is created.
+ *
+ * @author Sindre Glomnes
+ * @version 2021-05-14
+ */
+public class SnapshotReader {
+
+    /**
+     * Reads all addresses from a snapshot file.
+     *
+     * @param file path of the snapshot
+     * @return Arraylist of addresses in the order they were written
+     * @throws IOException if the file could not be read, or is not a valid snapshot
+     */
+    public ArrayList<Address> read(Path file) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        if (bytes.length < 18) {
+            throw new IOException("Snapshot is too short");
+        }
+
+        // Validates the checksum in the last four bytes.
+        CRC32 checksum = new CRC32();
+        checksum.update(bytes, 0, bytes.length - 4);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if (buffer.getInt(bytes.length - 4) != (int) checksum.getValue()) {
+            throw new IOException("Snapshot checksum does not match");
+        }
+        buffer.limit(bytes.length - 4);
+
+        try {
+            if (buffer.getInt() != SnapshotWriter.MAGIC) {
+                throw new IOException("File is not an address register snapshot");
+            }
+            short version = buffer.getShort();
+            if (version != SnapshotWriter.VERSION) {
+                throw new IOException("Snapshot version " + version + " is not supported");
+            }
+            int size = buffer.getInt();
+
+            String[] names = new String[buffer.getInt()];
+            for (int i = 0; i < names.length; i++) {
+                int length = buffer.getInt();
+                names[i] = new String(bytes, buffer.position(), length, StandardCharsets.UTF_8);
+                buffer.position(buffer.position() + length);
+            }
+
+            // Each column starts after the previous one.
+            int zipCodes = buffer.position();
+            int municipalCodes = zipCodes + 2 * size;
+            int postalIds = municipalCodes + 2 * size;
+            int municipalityNameIds = postalIds + 4 * size;
+            int categories = municipalityNameIds + 4 * size;
+            if (categories + size != buffer.limit()) {
+                throw new IOException("Snapshot size does not match number of addresses");
+            }
+
+            ArrayList<Address> addresses = new ArrayList<>(size);
+            for (int row = 0; row < size; row++) {
+                addresses.add(AddressFactory.create(
+                        buffer.getShort(zipCodes + 2 * row),
+                        names[buffer.getInt(postalIds + 4 * row)],
+                        buffer.getShort(municipalCodes + 2 * row),
+                        names[buffer.getInt(municipalityNameIds + 4 * row)],
+                        (char) (buffer.get(categories + row) & 0xFF)));
+            }
+            return addresses;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IOException("Snapshot is corrupt", e);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package mappe.del3.addressregister.percistence;
+
+import mappe.del3.addressregister.Address;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Writes the register to a binary snapshot file, which is much faster
+ * to load than a txt or csv file.
+ *
+ * Format (version 1, big endian):
+ * magic "ADRS", version (short), number of addresses (int),
+ * number of names (int) followed by each name as length (int) and UTF-8 bytes,
+ * then one column per field: zip codes (short), municipal codes (short),
+ * postal ids (int), municipality name ids (int) and categories (byte).
+ * The file ends with the CRC32 of all previous bytes (int).
+ *
+ * Postal and municipality names share one table of distinct names,
+ * so a name repeated thousands of times is only stored once.
+ *
+ * @author Sindre Glomnes
+ * @version 2021-05-14
+ */
+public class SnapshotWriter {
+    static final int MAGIC = 0x41445253; // "ADRS"
+    static final short VERSION = 1; // Current version of the format
+
+    /**
+     * Writes the addresses to a snapshot file. The snapshot is written to
+     * a temporary file, which is forced to the disk and then moved in
+     * place, so an old snapshot is never replaced by a half written one.
+     * When the method returns, the snapshot is on the disk.
+     *
+     * @param file path of the snapshot
+     * @param addresses the addresses to write
+     * @throws IOException if the file could not be written
+     */
+    public void write(Path file, Collection<Address> addresses) throws IOException {
+        // Builds the table of distinct names, and the name ids of each address.
+        HashMap<String, Integer> nameIds = new HashMap<>();
+        ArrayList<String> names = new ArrayList<>();
+        int size = addresses.size();
+        short[] zipCodes = new short[size];
+        short[] municipalCodes = new short[size];
+        int[] postalIds = new int[size];
+        int[] municipalityNameIds = new int[size];
+        byte[] categories = new byte[size];
+
+        int row = 0;
+        for (Address address : addresses) {
+            zipCodes[row] = Short.parseShort(address.getZipCode());
+            municipalCodes[row] = Short.parseShort(address.getMunicipalCode());
+            postalIds[row] = nameId(address.getPostal(), nameIds, names);
+            municipalityNameIds[row] = nameId(address.getMunicipalityName(), nameIds, names);
+            categories[row] = (byte) address.getCategory();
+            row++;
+        }
+
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+
+        CRC32 checksum = new CRC32();
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+             OutputStream fileStream = Channels.newOutputStream(channel)) {
+            DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+                    new BufferedOutputStream(fileStream, 1 << 16), checksum));
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeInt(size);
+
+            out.writeInt(names.size());
+            for (String name : names) {
+                byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+
+            for (short zipCode : zipCodes) {
+                out.writeShort(zipCode);
+            }
+            for (short municipalCode : municipalCodes) {
+                out.writeShort(municipalCode);
+            }
+            for (int postalId : postalIds) {
+                out.writeInt(postalId);
+            }
+            for (int municipalityNameId : municipalityNameIds) {
+                out.writeInt(municipalityNameId);
+            }
+            out.write(categories);
+
+            // The checksum covers everything written before it.
+            out.flush();
+            out.writeInt((int) checksum.getValue());
+            out.flush();
+            // The content must be on the disk before the move, or a crash could leave an empty snapshot in place
+            channel.force(true);
+        }
+        try {
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+        forceDirectory(file.toAbsolutePath().getParent());
+    }
+
+    /**
+     * Forces the entries of a directory to the disk, so a file moved into
+     * it is still there after a crash. Not every system can open a
+     * directory, and there the move is left to the file system.
+     *
+     * @param directory the directory
+     */
+    static void forceDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Directories can not be opened on Windows
+        }
+    }
+
+    /**
+     * Returns the id of a name in the name table. New names are added.
+     *
+     * @param name the name
+     * @param nameIds map from name to id
+     * @param names the name table
+     * @return the id of the name
+     */
+    private static int nameId(String name, HashMap<String, Integer> nameIds, ArrayList<String> names) {
+        Integer id = nameIds.get(name);
+        if (id == null) {
+            id = names.size();
+            nameIds.put(name, id);
+            names.add(name);
+        }
+        return id;
+    }
+}
@@ -0,0 +1,134 @@
+package mappe.del3.addressregister.percistence;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+
+/**
+ * Checks the header and trailer of an export while it is read, for
+ * streams that can not be read from the end, like compressed files.
+ * The checksum is calculated on the bytes as they pass, and the checksum
+ * at the start of the last line is kept, so the trailer line can be
+ * checked against it when the stream has ended.
+ *
+ * @author Sindre Glomnes
+ * @version 2021-05-14
+ */
+class TrailerCheckingInputStream extends FilterInputStream {
+    private static final byte NEW_LINE = '\n';
+
+    private final CRC32 checksum = new CRC32(); // Checksum of all bytes read
+    private long beforeLastLine; // Checksum of the bytes before the last complete line
+    private long atLastLineBreak; // Checksum of the bytes up to the last line break
+    private final byte[] head = new byte[ExportTrailer.HEADER.length()]; // The first bytes of the stream
+    private int headLength; // Number of bytes in head
+    private final byte[] tail = new byte[ExportTrailer.TAIL_SIZE]; // The last bytes read
+    private int tailLength; // Number of bytes in tail
+
+    /**
+     * Constructor
+     *
+     * @param in the stream read from
+     */
+    TrailerCheckingInputStream(InputStream in) {
+        super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        int read = read(single, 0, 1);
+        return read < 0 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        int read = in.read(bytes, offset, length);
+        if (read > 0) {
+            passed(bytes, offset, read);
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        // Skipped bytes must still be part of the checksum
+        byte[] skipped = new byte[(int) Math.min(n, 1 << 13)];
+        int read = read(skipped, 0, skipped.length);
+        return Math.max(read, 0);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    /**
+     * Updates the checksum, head and tail with bytes that were read.
+     *
+     * @param bytes the bytes
+     * @param offset index of the first byte read
+     * @param length number of bytes read
+     */
+    private void passed(byte[] bytes, int offset, int length) {
+        int end = offset + length;
+        if (headLength < head.length) {
+            int copied = Math.min(head.length - headLength, length);
+            System.arraycopy(bytes, offset, head, headLength, copied);
+            headLength += copied;
+        }
+
+        // Only the last two line breaks of the bytes matter for the checksum before the last line
+        int last = end - 1;
+        while (last >= offset && bytes[last] != NEW_LINE) {
+            last--;
+        }
+        if (last < offset) {
+            checksum.update(bytes, offset, length);
+        } else {
+            int secondLast = last - 1;
+            while (secondLast >= offset && bytes[secondLast] != NEW_LINE) {
+                secondLast--;
+            }
+            if (secondLast < offset) {
+                beforeLastLine = atLastLineBreak;
+                checksum.update(bytes, offset, last + 1 - offset);
+            } else {
+                checksum.update(bytes, offset, secondLast + 1 - offset);
+                beforeLastLine = checksum.getValue();
+                checksum.update(bytes, secondLast + 1, last - secondLast);
+            }
+            atLastLineBreak = checksum.getValue();
+            checksum.update(bytes, last + 1, end - last - 1);
+        }
+
+        if (length >= tail.length) {
+            System.arraycopy(bytes, end - tail.length, tail, 0, tail.length);
+            tailLength = tail.length;
+        } else {
+            int kept = Math.min(tailLength, tail.length - length);
+            System.arraycopy(tail, tailLength - kept, tail, 0, kept);
+            System.arraycopy(bytes, offset, tail, kept, length);
+            tailLength = kept + length;
+        }
+    }
+
+    /**
+     * Checks the trailer of an export, after the whole stream is read.
+     *
+     * @param name name of the file, used in error messages
+     * @return the number of addresses in the trailer, or -1 if the stream is not an export
+     * @throws IOException if the stream is an export that is incomplete or changed
+     */
+    int finish(String name) throws IOException {
+        if (!ExportTrailer.isHeader(head, headLength)) {
+            return -1;
+        }
+        ExportTrailer.Trailer trailer = ExportTrailer.Trailer.find(name, tail, tailLength);
+        if (trailer.checksum != beforeLastLine) {
+            throw new InvalidFileException("File " + name + " is corrupt, the checksum does not match");
+        }
+        return trailer.rows;
+    }
+}
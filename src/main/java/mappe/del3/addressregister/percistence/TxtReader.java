@@ -0,0 +1,548 @@
+package mappe.del3.addressregister.percistence;
+
+import mappe.del3.addressregister.Address;
+import mappe.del3.addressregister.AddressFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads tab separated txt files of addresses. The file is memory-mapped
+ * and the tab and newline delimiters are found directly in the mapped bytes.
+ * Zip code and municipal code are parsed to int without creating Strings,
+ * only the two names are decoded.
+ *
+ * A line has the format: zip code, postal, municipal code, municipality name
+ * and category, separated by tabs. Blank lines and lines starting with #
+ * are skipped. An exported file is checked to be complete before it is
+ * parsed, see ExportTrailer.
+ *
+ * Files ending with .gz are decompressed while they are read, in one pass
+ * through a reused block of bytes, without a temporary file. The lines of
+ * a block are parsed the same way as the lines of a mapped window.
+ *
+ * Files larger than the parallel threshold are split into chunks that end on
+ * line breaks, and the chunks are parsed on a ForkJoinPool. The addresses are
+ * always returned in the order of the file, so duplicates are handled the
+ * same way as in a sequential read.
+ *
+ * The addresses can also be given to a consumer in batches while the file
+ * is read, so the first addresses can be used before the whole file is
+ * parsed. The consumer can stop the read by throwing an exception.
+ *
+ * @author Sindre Glomnes
+ * @version 2021-05-14
+ */
+public class TxtReader {
+    private static final int WINDOW_SIZE = 1 << 28; // Max bytes mapped at once (256 MB)
+    private static final byte TAB = '\t';
+    private static final byte NEW_LINE = '\n';
+    private static final byte CARRIAGE_RETURN = '\r';
+    private static final int CHUNK_SIZE = 1 << 22; // Bytes parsed by one task in parallel mode (4 MB)
+    private static final int BLOCK_SIZE = 1 << 20; // Bytes parsed at once from a stream (1 MB)
+
+    private boolean parallel = true; // Parallel parsing of large files
+    private long parallelThreshold = 1 << 24; // Smallest file parsed in parallel (16 MB)
+
+    private Consumer<List<Address>> batches; // Receives the addresses while the file is read, or null
+    private int batchSize = Integer.MAX_VALUE; // Addresses parsed before they are given to the consumer
+    private int emitted; // Addresses given to the consumer
+
+    private final int[] tabs = new int[4]; // Reused positions of the tabs in a line
+    private char[] nameChars = new char[64]; // Reused buffer for decoding ISO-8859-1 names
+    private byte[] nameBytes = new byte[64]; // Reused buffer for decoding UTF-8 names
+
+    /**
+     * Turns parallel parsing on or off.
+     *
+     * @param parallel true = large files are parsed in parallel
+     */
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    /**
+     * Sets the smallest file size parsed in parallel. Smaller
+     * files are always parsed on the calling thread.
+     *
+     * @param parallelThreshold file size in bytes
+     */
+    public void setParallelThreshold(long parallelThreshold) {
+        if (parallelThreshold < 0) {
+            throw new IllegalArgumentException("Threshold can not be negative");
+        }
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    /**
+     * Reads a txt file, and gives the addresses to a consumer in batches
+     * while the file is read. A batch is only valid during the call, and
+     * the addresses of an invalid line or an incomplete export may come
+     * after other batches were given.
+     *
+     * @param file path to the txt file
+     * @param batchSize number of addresses in each batch, except the last
+     * @param batches receives each batch, and may throw to stop the read
+     * @return the number of addresses read
+     * @throws IOException if the file could not be read, or is an export that is incomplete
+     * @throws IllegalArgumentException if a line is not a valid address
+     */
+    public int read(Path file, int batchSize, Consumer<List<Address>> batches) throws IOException {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+        this.batches = batches;
+        this.batchSize = batchSize;
+        try {
+            read(file);
+            return emitted;
+        } finally {
+            this.batches = null;
+            this.batchSize = Integer.MAX_VALUE;
+            this.emitted = 0;
+        }
+    }
+
+    /**
+     * Reads all addresses from a txt file.
+     *
+     * @param file path to the txt file
+     * @return Arraylist of addresses in the order of the file
+     * @throws IOException if the file could not be read
+     * @throws IllegalArgumentException if a line is not a valid address
+     */
+    public ArrayList<Address> read(Path file) throws IOException {
+        if (AddressExporter.isCompressed(file)) {
+            try (InputStream in = new GZIPInputStream(Files.newInputStream(file), 1 << 16)) {
+                return read(in, file.getFileName().toString());
+            }
+        }
+        int expected = ExportTrailer.verify(file);
+        ArrayList<Address> addresses = new ArrayList<>(Math.max(Math.min(expected, batchSize), 10));
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            boolean parallelRead = parallel && size >= parallelThreshold;
+            long position = 0;
+            Charset charset = null;
+
+            // Maps the file in windows which always end on a line break.
+            while (position < size) {
+                long length = Math.min(WINDOW_SIZE, size - position);
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+
+                int start = 0;
+                // The byte order mark and the charset are only handled once, at the start of the file.
+                if (charset == null) {
+                    start = utf8BomLength(buffer);
+                    charset = start > 0 || isUtf8(buffer) ? StandardCharsets.UTF_8 : StandardCharsets.ISO_8859_1;
+                }
+
+                int end = (int) length;
+                if (position + length < size) {
+                    end = lastLineEnd(buffer) + 1;
+                    if (end == 0) {
+                        throw new IOException("Line at byte " + position + " is too long");
+                    }
+                }
+
+                if (parallelRead) {
+                    parseParallel(buffer, start, end, charset, position, addresses);
+                } else {
+                    parse(buffer, start, end, charset, position, addresses);
+                }
+                position += end;
+            }
+        }
+        emit(addresses, true);
+        ExportTrailer.checkRows(file.getFileName().toString(), expected, emitted + addresses.size());
+        return addresses;
+    }
+
+    /**
+     * Reads all addresses from a stream of a txt file. The stream is read
+     * in blocks, and the complete lines of each block are parsed before
+     * the next block is read. The stream is not closed.
+     *
+     * @param in the stream
+     * @param name name of the file, used in error messages
+     * @return Arraylist of addresses in the order of the file
+     * @throws IOException if the stream could not be read, or is an export that is incomplete
+     * @throws IllegalArgumentException if a line is not a valid address
+     */
+    public ArrayList<Address> read(InputStream in, String name) throws IOException {
+        TrailerCheckingInputStream checked = new TrailerCheckingInputStream(in);
+        ArrayList<Address> addresses = new ArrayList<>();
+        byte[] block = new byte[BLOCK_SIZE];
+        int length = 0; // Bytes in the block
+        long position = 0; // Position of the block in the file
+        Charset charset = null;
+        boolean end = false;
+
+        while (!end) {
+            int read = checked.read(block, length, block.length - length);
+            if (read < 0) {
+                end = true;
+            } else {
+                length += read;
+                if (length < block.length) {
+                    continue;
+                }
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(block, 0, length);
+
+            int start = 0;
+            if (position == 0) {
+                start = utf8BomLength(buffer);
+                if (start > 0) {
+                    charset = StandardCharsets.UTF_8;
+                }
+            }
+            int lineEnd = end ? length : lastLineEnd(buffer) + 1;
+            if (!end && lineEnd == 0) {
+                throw new IOException("Line at byte " + position + " is too long");
+            }
+            // Lines of only ASCII are the same in both charsets, so the charset is chosen at the first other byte
+            if (charset == null && hasNonAscii(block, start, lineEnd)) {
+                charset = isUtf8(ByteBuffer.wrap(block, 0, lineEnd)) ? StandardCharsets.UTF_8 : StandardCharsets.ISO_8859_1;
+            }
+            parse(buffer, start, lineEnd, charset != null ? charset : StandardCharsets.ISO_8859_1, position, addresses);
+
+            // Keeps the start of the line that continues in the next block
+            System.arraycopy(block, lineEnd, block, 0, length - lineEnd);
+            position += lineEnd;
+            length -= lineEnd;
+        }
+        emit(addresses, true);
+        ExportTrailer.checkRows(name, checked.finish(name), emitted + addresses.size());
+        return addresses;
+    }
+
+    /**
+     * Parses all lines between from and to in the buffer.
+     * To must be the end of the buffer or just after a line break.
+     *
+     * @param buffer the bytes of the file
+     * @param from index of the first byte of the first line
+     * @param to index after the last byte of the last line
+     * @param charset charset of the names
+     * @param offset file position of the buffer, used in error messages
+     * @param addresses list the addresses are added to
+     */
+    void parse(ByteBuffer buffer, int from, int to, Charset charset, long offset, ArrayList<Address> addresses) {
+        int lineStart = from;
+        while (lineStart < to) {
+            int lineEnd = lineStart;
+            while (lineEnd < to && buffer.get(lineEnd) != NEW_LINE) {
+                lineEnd++;
+            }
+            int next = lineEnd + 1;
+            if (lineEnd > lineStart && buffer.get(lineEnd - 1) == CARRIAGE_RETURN) {
+                lineEnd--;
+            }
+            if (lineEnd > lineStart && buffer.get(lineStart) != ExportTrailer.COMMENT) {
+                addresses.add(parseLine(buffer, lineStart, lineEnd, charset, offset));
+                if (addresses.size() >= batchSize) {
+                    emit(addresses, false);
+                }
+            }
+            lineStart = next;
+        }
+    }
+
+    /**
+     * Parses the lines between from and to in parallel. The range is split
+     * into chunks ending on line breaks, each chunk is parsed by its own task,
+     * and the results are added to the list in the order of the chunks.
+     *
+     * @param buffer the bytes of the file
+     * @param from index of the first byte of the first line
+     * @param to index after the last byte of the last line
+     * @param charset charset of the names
+     * @param offset file position of the buffer, used in error messages
+     * @param addresses list the addresses are added to
+     */
+    private void parseParallel(ByteBuffer buffer, int from, int to, Charset charset, long offset,
+                               ArrayList<Address> addresses) {
+        // Finds the chunk boundaries. Every chunk except the last ends just after a line break.
+        ArrayList<Integer> boundaries = new ArrayList<>();
+        boundaries.add(from);
+        int boundary = from;
+        while (to - boundary > CHUNK_SIZE) {
+            int lineEnd = boundary + CHUNK_SIZE;
+            while (lineEnd < to && buffer.get(lineEnd) != NEW_LINE) {
+                lineEnd++;
+            }
+            boundary = Math.min(lineEnd + 1, to);
+            boundaries.add(boundary);
+        }
+        if (boundary < to) {
+            boundaries.add(to);
+        }
+
+        if (boundaries.size() < 2) {
+            return;
+        }
+
+        // The tasks only set their own elements, so the list is never resized while they run
+        int count = boundaries.size() - 1;
+        List<List<Address>> chunks = new ArrayList<>(Collections.nCopies(count, null));
+        // With a consumer, a few chunks are parsed at a time, so the batches come while the file is read
+        int round = batches == null ? count : Math.max(2, ForkJoinPool.getCommonPoolParallelism() * 2);
+        for (int first = 0; first < count; first += round) {
+            int last = Math.min(first + round, count);
+            ForkJoinPool.commonPool().invoke(new ChunkTask(buffer, boundaries, first, last, charset, offset, chunks));
+
+            int total = 0;
+            for (int i = first; i < last; i++) {
+                total += chunks.get(i).size();
+            }
+            addresses.ensureCapacity(addresses.size() + total);
+            for (int i = first; i < last; i++) {
+                addresses.addAll(chunks.get(i));
+                chunks.set(i, null);
+            }
+            if (addresses.size() >= batchSize) {
+                emit(addresses, false);
+            }
+        }
+    }
+
+    /**
+     * Gives the parsed addresses to the consumer in batches, if there is
+     * a consumer. The addresses given are removed from the list, and the
+     * addresses left over are given with the next batch.
+     *
+     * @param addresses the addresses parsed since the last batch
+     * @param last true at the end of the file, when a smaller batch is given
+     */
+    private void emit(ArrayList<Address> addresses, boolean last) {
+        if (batches == null) {
+            return;
+        }
+        int from = 0;
+        while (addresses.size() - from >= batchSize || (last && from < addresses.size())) {
+            int to = (int) Math.min((long) from + batchSize, addresses.size());
+            batches.accept(Collections.unmodifiableList(addresses.subList(from, to)));
+            from = to;
+        }
+        emitted += from;
+        addresses.subList(0, from).clear();
+    }
+
+    /**
+     * Fork/join task parsing a range of chunks. The range is split in
+     * two until one chunk is left, which is parsed with its own TxtReader
+     * so the decode buffers are not shared between threads.
+     */
+    private static class ChunkTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final ByteBuffer buffer; // The bytes of the file, only read with absolute get
+        private final ArrayList<Integer> boundaries; // Start of each chunk, and end of the last chunk
+        private final int first; // First chunk parsed by this task
+        private final int last; // Chunk after the last chunk parsed by this task
+        private final Charset charset; // Charset of the names
+        private final long offset; // File position of the buffer
+        private final List<List<Address>> chunks; // Result of each chunk
+
+        ChunkTask(ByteBuffer buffer, ArrayList<Integer> boundaries, int first, int last,
+                  Charset charset, long offset, List<List<Address>> chunks) {
+            this.buffer = buffer;
+            this.boundaries = boundaries;
+            this.first = first;
+            this.last = last;
+            this.charset = charset;
+            this.offset = offset;
+            this.chunks = chunks;
+        }
+
+        @Override
+        protected void compute() {
+            if (last - first == 1) {
+                ArrayList<Address> chunk = new ArrayList<>();
+                new TxtReader().parse(buffer, boundaries.get(first), boundaries.get(last), charset, offset, chunk);
+                chunks.set(first, chunk);
+            } else {
+                int middle = (first + last) >>> 1;
+                invokeAll(new ChunkTask(buffer, boundaries, first, middle, charset, offset, chunks),
+                        new ChunkTask(buffer, boundaries, middle, last, charset, offset, chunks));
+            }
+        }
+    }
+
+    /**
+     * Creates an address from one line.
+     *
+     * @param buffer the bytes of the file
+     * @param start index of the first byte of the line
+     * @param end index after the last byte of the line, without line break
+     * @param charset charset of the names
+     * @param offset file position of the buffer, used in error messages
+     * @return the address on the line
+     */
+    private Address parseLine(ByteBuffer buffer, int start, int end, Charset charset, long offset) {
+        int found = 0;
+        for (int i = start; i < end && found < 4; i++) {
+            if (buffer.get(i) == TAB) {
+                tabs[found++] = i;
+            }
+        }
+        if (found < 4 || tabs[3] + 1 >= end) {
+            throw new IllegalArgumentException("Line at byte " + (offset + start) + " is not a valid address");
+        }
+
+        int zipCode = parseInt(buffer, start, tabs[0], offset);
+        String postal = decode(buffer, tabs[0] + 1, tabs[1], charset);
+        int municipalCode = parseInt(buffer, tabs[1] + 1, tabs[2], offset);
+        String municipalityName = decode(buffer, tabs[2] + 1, tabs[3], charset);
+        char category = (char) (buffer.get(tabs[3] + 1) & 0xFF);
+
+        return AddressFactory.create(zipCode, postal, municipalCode, municipalityName, category);
+    }
+
+    /**
+     * Parses the digits between start and end as an int.
+     *
+     * @param buffer the bytes of the file
+     * @param start index of the first digit
+     * @param end index after the last digit
+     * @param offset file position of the buffer, used in error messages
+     * @return the number
+     */
+    private int parseInt(ByteBuffer buffer, int start, int end, long offset) {
+        if (start == end || end - start > 9) {
+            throw new IllegalArgumentException("Invalid number at byte " + (offset + start));
+        }
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new IllegalArgumentException("Invalid number at byte " + (offset + start));
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * Decodes a name between start and end. ISO-8859-1 bytes are
+     * the same as the first 256 chars, so they are copied directly.
+     *
+     * @param buffer the bytes of the file
+     * @param start index of the first byte of the name
+     * @param end index after the last byte of the name
+     * @param charset charset of the names
+     * @return the name
+     */
+    private String decode(ByteBuffer buffer, int start, int end, Charset charset) {
+        int length = end - start;
+        if (charset == StandardCharsets.ISO_8859_1) {
+            if (nameChars.length < length) {
+                nameChars = new char[length];
+            }
+            for (int i = 0; i < length; i++) {
+                nameChars[i] = (char) (buffer.get(start + i) & 0xFF);
+            }
+            return new String(nameChars, 0, length);
+        }
+        if (nameBytes.length < length) {
+            nameBytes = new byte[length];
+        }
+        for (int i = 0; i < length; i++) {
+            nameBytes[i] = buffer.get(start + i);
+        }
+        return new String(nameBytes, 0, length, charset);
+    }
+
+    /**
+     * @param buffer the start of the file
+     * @return 3 if the file starts with the UTF-8 byte order mark, otherwise 0
+     */
+    static int utf8BomLength(ByteBuffer buffer) {
+        if (buffer.limit() >= 3 && (buffer.get(0) & 0xFF) == 0xEF
+                && (buffer.get(1) & 0xFF) == 0xBB && (buffer.get(2) & 0xFF) == 0xBF) {
+            return 3;
+        }
+        return 0;
+    }
+
+    /**
+     * Checks if the first non ASCII character in the buffer is
+     * valid UTF-8. Files without such characters are read as
+     * ISO-8859-1, which is the format of the postal register.
+     *
+     * @param buffer the start of the file
+     * @return true if the names are UTF-8 encoded
+     */
+    static boolean isUtf8(ByteBuffer buffer) {
+        int i = 0;
+        int limit = buffer.limit();
+        while (i < limit) {
+            int b = buffer.get(i) & 0xFF;
+            int continuation;
+            if (b < 0x80) {
+                i++;
+                continue;
+            } else if (b >= 0xC2 && b <= 0xDF) {
+                continuation = 1;
+            } else if (b >= 0xE0 && b <= 0xEF) {
+                continuation = 2;
+            } else if (b >= 0xF0 && b <= 0xF4) {
+                continuation = 3;
+            } else {
+                return false;
+            }
+            for (int j = 1; j <= continuation; j++) {
+                if (i + j >= limit || (buffer.get(i + j) & 0xC0) != 0x80) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param bytes a part of the file
+     * @param from index of the first byte checked
+     * @param to index after the last byte checked
+     * @return true if a byte between from and to is not ASCII
+     */
+    private static boolean hasNonAscii(byte[] bytes, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (bytes[i] < 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param buffer a part of the file
+     * @return index of the last line break in the buffer, or -1 if there is none
+     */
+    static int lastLineEnd(ByteBuffer buffer) {
+        for (int i = buffer.limit() - 1; i >= 0; i--) {
+            if (buffer.get(i) == NEW_LINE) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
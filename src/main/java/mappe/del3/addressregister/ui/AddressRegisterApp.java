@@ -15,6 +15,7 @@ import javafx.stage.Stage;
  * @version 2021-05-14
  */
 public class AddressRegisterApp extends Application {
+    private Factory factory; // Instance of Factory, used to save the register on exit
 
     //launch
     public static void main(String[] args) {
@@ -32,14 +33,14 @@ public class AddressRegisterApp extends Application {
     public void start(Stage primaryStage) throws Exception {
 
         // Creates an instance of Factory
-        Factory factory = new Factory();
+        factory = new Factory();
 
         // Creates a Borderpane as root
         BorderPane root = new BorderPane();
         VBox topContainer = new VBox();
 
-        topContainer.getChildren().addAll(factory.createMenus(), factory.createButtons());
-        topContainer.setMinHeight(105);
+        topContainer.getChildren().addAll(factory.createMenus(), factory.createButtons(), factory.createSearchBar());
+        topContainer.setMinHeight(140);
 
         // Sets the different containers of the BorderPane
         root.setTop(topContainer);
@@ -57,13 +58,19 @@ public class AddressRegisterApp extends Application {
         primaryStage.setScene(scene);
         // Shows the stage
         primaryStage.show();
+
+        // Loads the register saved when the application was last closed
+        factory.getMainController().loadSnapshot(factory);
     }
 
     /**
-     * Closes the application
+     * Saves the register and closes the application
      */
     @Override
     public void stop() {
+        if (factory != null) {
+            factory.getMainController().saveSnapshot();
+        }
         System.exit(0);
     }
 }
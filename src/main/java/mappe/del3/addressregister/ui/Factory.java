@@ -1,7 +1,8 @@
 package mappe.del3.addressregister.ui;
 
 import javafx.application.Platform;
-import javafx.collections.FXCollections;
+import javafx.concurrent.Task;
+import javafx.geometry.Pos;
 import javafx.collections.ObservableList;
 import javafx.scene.Node;
 import javafx.scene.control.*;
@@ -15,9 +16,13 @@ import javafx.scene.layout.AnchorPane;
 import javafx.scene.layout.HBox;
 import javafx.scene.text.Text;
 import mappe.del3.addressregister.Address;
+import mappe.del3.addressregister.AddressField;
 import mappe.del3.addressregister.AddressRegister;
+import mappe.del3.addressregister.RegisterEvent;
+import mappe.del3.addressregister.SearchResult;
 import mappe.del3.addressregister.controll.MainController.MainController;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Factory class for the GUI. Creates all elements for
@@ -33,7 +38,10 @@ public class Factory {
     private final SearchDialog searchDialog = new SearchDialog(); // Instance of SearchDialog
     private final HBox statusBar = new HBox(); // The statusbar
     private TableView<Address> AddressTableView; // The TableView
-    private ObservableList<Address> AddressRegisterListWrapper; // The content of the TableView
+    private LazyAddressList AddressRegisterListWrapper; // The content of the TableView, created as rows are shown
+    private boolean showingAll = true; // True if the TableView shows all addresses, false if it shows a search
+    private long shownVersion; // Version of the register shown in the TableView
+    private final AtomicBoolean refreshQueued = new AtomicBoolean(); // True while a reload of the TableView is waiting
 
     /**
      * Constructor. Creates an instance of MainController.
@@ -42,6 +50,13 @@ public class Factory {
         this.mainController = new MainController();
     }
 
+    /**
+     * @return the instance of MainController used by the GUI
+     */
+    public MainController getMainController() {
+        return mainController;
+    }
+
     /**
      * Creates a statusbar node with the
      * default status of OK.
@@ -68,6 +83,42 @@ public class Factory {
         statusBar.getChildren().add(new Text("Status: " + status));
     }
 
+    /**
+     * Shows the progress of a background task in the statusbar, with
+     * its message, a progress bar and a button for cancelling it.
+     * The progress is shown until the statusbar is updated again.
+     *
+     * @param task the running task
+     */
+    public void showProgress(Task<?> task) {
+        Text message = new Text();
+        message.textProperty().bind(task.messageProperty());
+        ProgressBar progressBar = new ProgressBar();
+        progressBar.progressProperty().bind(task.progressProperty());
+        Button cancel = new Button("Cancel");
+        cancel.setOnAction(event -> task.cancel());
+
+        statusBar.getChildren().clear();
+        statusBar.setSpacing(10);
+        statusBar.setAlignment(Pos.CENTER_LEFT);
+        statusBar.getChildren().addAll(new Text("Status:"), progressBar, message, cancel);
+    }
+
+    /**
+     * Creates the search field that searches while the user types.
+     * The result of each search is shown in the tableView.
+     *
+     * @return search bar node
+     */
+    public Node createSearchBar() {
+        return new LiveSearchBar((result, all) -> {
+            this.AddressRegisterListWrapper.setSource(result);
+            this.showingAll = all;
+            this.shownVersion = result.getVersion();
+            updateStatusBar(result.size() + " addresses found");
+        });
+    }
+
     /**
      * Creates an AnchorPane with the buttons:
      * Add (Add address)
@@ -201,6 +252,11 @@ public class Factory {
         MenuItem byMunicipalCode = new MenuItem("Municipal Code");
         MenuItem byMunicipalityName = new MenuItem("Municipality Name");
         MenuItem byCategory = new MenuItem("Category");
+        MenuItem byPostalFuzzy = new MenuItem("Similar Postal...");
+        MenuItem byMunicipalityNameFuzzy = new MenuItem("Similar Municipality Name...");
+        MenuItem byPostalContaining = new MenuItem("Postal Containing...");
+        MenuItem byMunicipalityNameContaining = new MenuItem("Municipality Name Containing...");
+        MenuItem byQuery = new MenuItem("Query...");
         MenuItem seperator2 = new SeparatorMenuItem();
         MenuItem removeFilter = new MenuItem("Remove Filter");
 
@@ -235,11 +291,39 @@ public class Factory {
             setObservableListBySearch();
         });
 
+        byPostalFuzzy.setOnAction(event -> {
+            searchDialog.fuzzy(AddressField.POSTAL, "Postal");
+            setObservableListBySearch();
+        });
+
+        byMunicipalityNameFuzzy.setOnAction(event -> {
+            searchDialog.fuzzy(AddressField.MUNICIPALITY_NAME, "Municipality Name");
+            setObservableListBySearch();
+        });
+
+        byPostalContaining.setOnAction(event -> {
+            searchDialog.containing(AddressField.POSTAL, "Postal");
+            setObservableListBySearch();
+        });
+
+        byMunicipalityNameContaining.setOnAction(event -> {
+            searchDialog.containing(AddressField.MUNICIPALITY_NAME, "Municipality Name");
+            setObservableListBySearch();
+        });
+
+        byQuery.setOnAction(event -> {
+            // The table keeps its addresses if no query was run
+            if (searchDialog.byQuery()) {
+                setObservableListBySearch();
+            }
+        });
+
         // Updates the observableList with list of addresses
         removeFilter.setOnAction(event -> updateObservableList());
 
         search.getItems().addAll(byZipCode,byPostal,byMunicipalCode
-                ,byMunicipalityName,byCategory,seperator2,removeFilter);
+                ,byMunicipalityName,byCategory,byPostalFuzzy,byMunicipalityNameFuzzy,byPostalContaining
+                ,byMunicipalityNameContaining,byQuery,seperator2,removeFilter);
 
         // Help menu
         Menu menuHelp = new Menu("Help");
@@ -293,12 +377,15 @@ public class Factory {
         tableView.getColumns().addAll(zipCodeColumn,postalColumn,municipalCodeColumn,municipalityNameColumn,categoryColumn);
 
         this.AddressTableView = tableView;
+        // Keeps the tableView up to date with each change to the register
+        this.register.addListener(this::registerChanged);
         return tableView;
     }
 
     /**
-     * Sets the observableList used in the tableView equal to the the arrayList of
-     * addresses in AddressRegister
+     * Sets the observableList used in the tableView to all
+     * addresses in AddressRegister. The addresses are only
+     * created when their rows are shown.
      *
      * @return the ObservableList
      */
@@ -306,7 +393,7 @@ public class Factory {
         if (this.register == null) {
             this.AddressRegisterListWrapper = null;
         } else {
-            this.AddressRegisterListWrapper = FXCollections.observableArrayList(this.register.getAddresses());
+            this.AddressRegisterListWrapper = new LazyAddressList(this.register.allAddresses());
         }
         return this.AddressRegisterListWrapper;
     }
@@ -315,7 +402,10 @@ public class Factory {
      * Updates the list (updates the visual tableview list)
      */
     public void updateObservableList() {
-        this.AddressRegisterListWrapper.setAll(this.register.getAddresses());
+        SearchResult all = this.register.allAddresses();
+        this.AddressRegisterListWrapper.setSource(all);
+        this.showingAll = true;
+        this.shownVersion = all.getVersion();
     }
 
     /**
@@ -323,7 +413,83 @@ public class Factory {
      * searched for.
      */
     public void setObservableListBySearch() {
-        this.AddressRegisterListWrapper.setAll(this.register.getAddressesBySearch());
+        SearchResult result = this.register.getAddressesBySearch();
+        this.AddressRegisterListWrapper.setSource(result);
+        this.showingAll = false;
+        this.shownVersion = result.getVersion();
+        updateStatusBar(result.size() + " addresses found");
+    }
+
+    /**
+     * Updates the tableView with a change to the register. A single
+     * change only changes one row of the list. Added addresses are only
+     * shown when the list shows all addresses, not a search, and changes
+     * to many addresses read the list again. Changes made on another
+     * thread are applied on the JavaFX thread, and many bulk changes
+     * in a row, as from an import, give only one reload.
+     *
+     * @param event the change
+     */
+    private void registerChanged(RegisterEvent event) {
+        if (event.getType() == RegisterEvent.Type.BULK_ADDED) {
+            // The reload reads the register when it runs, so later bulk changes need no reload of their own
+            if (this.refreshQueued.compareAndSet(false, true)) {
+                Platform.runLater(() -> {
+                    this.refreshQueued.set(false);
+                    if (this.showingAll) {
+                        updateObservableList();
+                    }
+                });
+            }
+            return;
+        }
+        if (!Platform.isFxApplicationThread()) {
+            Platform.runLater(() -> registerChanged(event));
+            return;
+        }
+        // Changes already shown by a reload of the list are skipped
+        if (event.getVersion() <= this.shownVersion) {
+            return;
+        }
+        this.shownVersion = event.getVersion();
+        switch (event.getType()) {
+            case ADDED:
+                if (this.showingAll) {
+                    this.AddressRegisterListWrapper.append(event.getAddress());
+                }
+                break;
+            case REMOVED:
+                int removed = indexOf(event.getAddress());
+                if (removed >= 0) {
+                    this.AddressRegisterListWrapper.removeAt(removed);
+                }
+                break;
+            case REPLACED:
+                int replaced = indexOf(event.getPrevious());
+                if (replaced >= 0) {
+                    this.AddressRegisterListWrapper.replace(replaced, event.getAddress());
+                }
+                break;
+            default:
+                updateObservableList();
+                break;
+        }
+    }
+
+    /**
+     * Finds the position of an address in the tableView. The selected
+     * row is checked first, since that is the address the user changes.
+     *
+     * @param address the address
+     * @return the position, or -1 if the address is not shown
+     */
+    private int indexOf(Address address) {
+        int selected = this.AddressTableView.getSelectionModel().getSelectedIndex();
+        if (selected >= 0 && selected < this.AddressRegisterListWrapper.size()
+                && this.AddressRegisterListWrapper.get(selected).equals(address)) {
+            return selected;
+        }
+        return this.AddressRegisterListWrapper.indexOf(address);
     }
 
     /**
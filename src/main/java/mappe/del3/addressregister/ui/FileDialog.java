@@ -3,8 +3,10 @@ package mappe.del3.addressregister.ui;
 import javafx.scene.control.Alert;
 import javafx.scene.control.ButtonBar;
 import javafx.scene.control.ButtonType;
+import javafx.scene.control.ChoiceDialog;
 
 import java.util.Optional;
+import java.util.OptionalInt;
 
 /**
  * Dialog for choosing a filetype not supported by the application.
@@ -71,4 +73,28 @@ public class FileDialog {
         } else return !result.isPresent() || (result.get() != ok);
     }
 
+    /**
+     * Shows a dialog for choosing how hard a compressed file
+     * is compressed. A smaller file takes longer to write.
+     *
+     * @return the compression level from 1 to 9, or empty if the user cancelled
+     */
+    public OptionalInt compressionLevel() {
+        String fastest = "Fastest (level 1)";
+        String normal = "Normal (level 6)";
+        String smallest = "Smallest file (level 9)";
+        ChoiceDialog<String> choice = new ChoiceDialog<>(normal, fastest, normal, smallest);
+        choice.setTitle("File Details - compression");
+        choice.setHeaderText("Choose the compression of the file");
+        choice.setContentText("Compression:");
+
+        Optional<String> result = choice.showAndWait();
+        if (!result.isPresent()) {
+            return OptionalInt.empty();
+        }
+        if (result.get().equals(fastest)) {
+            return OptionalInt.of(1);
+        }
+        return OptionalInt.of(result.get().equals(smallest) ? 9 : 6);
+    }
 }
@@ -0,0 +1,175 @@
+package mappe.del3.addressregister.ui;
+
+import javafx.collections.ObservableListBase;
+import mappe.del3.addressregister.Address;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * ObservableList shown in the TableView, which reads from another list
+ * instead of copying it. With a SearchResult as the source, the TableView
+ * only creates the addresses of the rows that are visible.
+ *
+ * Single addresses can be added, removed and replaced, and the TableView
+ * is told about only that change. After the first such change the list
+ * keeps, for each position, the position in the source or the address
+ * put there, so changes never copy addresses from the source.
+ *
+ * Setting all elements, as the TableView does when it sorts a column,
+ * copies the elements into a new source.
+ *
+ * @author Sindre Glomnes
+ * @version 2021-05-14
+ */
+class LazyAddressList extends ObservableListBase<Address> {
+    private List<Address> source; // The addresses shown
+    private int[] positions; // Position in the source of each element, or null while unchanged
+    private Address[] changed; // Addresses added or replaced, null where the source is used
+    private int size; // Number of elements, used when positions is not null
+
+    /**
+     * Constructor
+     *
+     * @param source the addresses shown
+     */
+    LazyAddressList(List<Address> source) {
+        this.source = source;
+    }
+
+    /**
+     * Shows other addresses, and tells the listeners that all
+     * addresses were replaced.
+     *
+     * @param source the addresses shown
+     */
+    void setSource(List<Address> source) {
+        // The old arrays are not changed after this, so the removed addresses can be read from them later
+        List<Address> old = positions == null ? this.source : new Removed(this.source, positions, changed, size);
+        this.source = source;
+        positions = null;
+        changed = null;
+        beginChange();
+        nextRemove(0, old);
+        nextAdd(0, source.size());
+        endChange();
+    }
+
+    /**
+     * Adds an address to the end of the list.
+     *
+     * @param address the address
+     */
+    void append(Address address) {
+        detach();
+        if (size == positions.length) {
+            positions = Arrays.copyOf(positions, size + (size >> 1) + 16);
+            changed = Arrays.copyOf(changed, positions.length);
+        }
+        positions[size] = -1;
+        changed[size] = address;
+        size++;
+        beginChange();
+        nextAdd(size - 1, size);
+        endChange();
+    }
+
+    /**
+     * Removes the address at a position.
+     *
+     * @param index the position
+     */
+    void removeAt(int index) {
+        Address old = get(index);
+        detach();
+        System.arraycopy(positions, index + 1, positions, index, size - index - 1);
+        System.arraycopy(changed, index + 1, changed, index, size - index - 1);
+        changed[--size] = null;
+        beginChange();
+        nextRemove(index, old);
+        endChange();
+    }
+
+    /**
+     * Replaces the address at a position.
+     *
+     * @param index the position
+     * @param address the new address
+     */
+    void replace(int index, Address address) {
+        Address old = get(index);
+        detach();
+        changed[index] = address;
+        beginChange();
+        nextSet(index, old);
+        endChange();
+    }
+
+    /**
+     * Makes the list able to change single positions, with each
+     * position first pointing at the same position in the source.
+     */
+    private void detach() {
+        if (positions == null) {
+            size = source.size();
+            positions = new int[size + 16];
+            changed = new Address[size + 16];
+            for (int i = 0; i < size; i++) {
+                positions[i] = i;
+            }
+        }
+    }
+
+    @Override
+    public boolean setAll(Collection<? extends Address> addresses) {
+        setSource(new ArrayList<>(addresses));
+        return true;
+    }
+
+    @Override
+    public Address get(int index) {
+        if (positions == null) {
+            return source.get(index);
+        }
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " is outside the list of " + size);
+        }
+        return changed[index] != null ? changed[index] : source.get(positions[index]);
+    }
+
+    @Override
+    public int size() {
+        return positions == null ? source.size() : size;
+    }
+
+    /**
+     * The addresses of a list that was replaced by setSource, read
+     * from its arrays instead of being copied.
+     */
+    private static class Removed extends AbstractList<Address> {
+        private final List<Address> source; // The source of the replaced list
+        private final int[] positions; // Position in the source of each element
+        private final Address[] changed; // Addresses added or replaced
+        private final int size; // Number of elements
+
+        Removed(List<Address> source, int[] positions, Address[] changed, int size) {
+            this.source = source;
+            this.positions = positions;
+            this.changed = changed;
+            this.size = size;
+        }
+
+        @Override
+        public Address get(int index) {
+            return changed[index] != null ? changed[index] : source.get(positions[index]);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
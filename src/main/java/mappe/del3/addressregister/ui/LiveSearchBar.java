@@ -0,0 +1,173 @@
+package mappe.del3.addressregister.ui;
+
+import javafx.animation.PauseTransition;
+import javafx.concurrent.Task;
+import javafx.geometry.Insets;
+import javafx.geometry.Side;
+import javafx.scene.control.ChoiceBox;
+import javafx.scene.control.ContextMenu;
+import javafx.scene.control.Label;
+import javafx.scene.control.MenuItem;
+import javafx.scene.control.TextField;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
+import javafx.util.Duration;
+import javafx.util.StringConverter;
+import mappe.del3.addressregister.AddressField;
+import mappe.del3.addressregister.AddressRegister;
+import mappe.del3.addressregister.SearchResult;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiConsumer;
+
+/**
+ * Search field in the main window, which searches while the user types.
+ * The search waits until the user has stopped typing for a moment, and
+ * runs on a background thread so the window stays responsive. A new search
+ * cancels the one before it: a search that has not started is skipped, and
+ * a running search is interrupted, which stops the register's query at its
+ * next check, so it does not hold up the newest search. Only the result of
+ * the newest search is shown. For postal and municipality name, the most common names starting
+ * with the text are suggested below the field.
+ *
+ * @author Sindre Glomnes
+ * @version 2021-05-14
+ */
+class LiveSearchBar extends HBox {
+    private static final int SUGGESTIONS = 8; // Most names suggested
+    private static final Duration DELAY = Duration.millis(250); // Time without typing before searching
+
+    private final AddressRegister register = AddressRegister.getInstance(); // Instance of AddressRegister
+    private final ChoiceBox<AddressField> fieldChoice = new ChoiceBox<>(); // The field searched by
+    private final TextField searchField = new TextField(); // The text searched for
+    private final ContextMenu suggestionMenu = new ContextMenu(); // Suggested names
+    private final PauseTransition debounce = new PauseTransition(DELAY); // Waits for the user to stop typing
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "live-search");
+        thread.setDaemon(true);
+        return thread;
+    }); // Runs the searches in order, off the JavaFX thread
+    private final BiConsumer<SearchResult, Boolean> onResult; // Shows a result, and if it is all addresses
+    private Task<LiveResult> running; // The newest search, only used on the JavaFX thread
+
+    /**
+     * Constructor. Creates the field chooser and the search field.
+     *
+     * @param onResult shows the result of a search, and is told if the result is
+     * all addresses because the text is empty. Called on the JavaFX thread
+     */
+    LiveSearchBar(BiConsumer<SearchResult, Boolean> onResult) {
+        this.onResult = onResult;
+
+        fieldChoice.getItems().addAll(AddressField.values());
+        fieldChoice.setValue(AddressField.POSTAL);
+        fieldChoice.setConverter(new StringConverter<>() {
+            @Override
+            public String toString(AddressField field) {
+                switch (field) {
+                    case ZIP_CODE:
+                        return "Zip Code";
+                    case POSTAL:
+                        return "Postal";
+                    case MUNICIPAL_CODE:
+                        return "Municipal Code";
+                    case MUNICIPALITY_NAME:
+                        return "Municipality Name";
+                    default:
+                        return "Category";
+                }
+            }
+
+            @Override
+            public AddressField fromString(String text) {
+                return null;
+            }
+        });
+
+        searchField.setPromptText("Type to search...");
+        HBox.setHgrow(searchField, Priority.ALWAYS);
+
+        // Restarts the wait on every change, so the search only runs when the user stops typing
+        debounce.setOnFinished(event -> search());
+        searchField.textProperty().addListener((observable, oldText, newText) -> debounce.playFromStart());
+        fieldChoice.valueProperty().addListener((observable, oldField, newField) -> debounce.playFromStart());
+
+        setSpacing(10);
+        setPadding(new Insets(5, 10, 5, 10));
+        getChildren().addAll(new Label("Search:"), fieldChoice, searchField);
+    }
+
+    /**
+     * Starts a search with the current text, and cancels the search before it.
+     * An empty text shows all addresses.
+     */
+    private void search() {
+        if (running != null) {
+            running.cancel();
+        }
+        AddressField field = fieldChoice.getValue();
+        String term = searchField.getText().trim();
+        boolean suggest = !term.isEmpty()
+                && (field == AddressField.POSTAL || field == AddressField.MUNICIPALITY_NAME);
+
+        Task<LiveResult> task = new Task<>() {
+            @Override
+            protected LiveResult call() {
+                SearchResult result = term.isEmpty() ? register.allAddresses() : register.search(field, term);
+                List<String> names = suggest ? register.suggestNames(field, term, SUGGESTIONS) : new ArrayList<>();
+                return new LiveResult(result, names);
+            }
+        };
+        // A cancelled task does not succeed, and a task that finished just before it was replaced is ignored
+        task.setOnSucceeded(event -> {
+            if (task == running) {
+                onResult.accept(task.getValue().result, term.isEmpty());
+                showSuggestions(task.getValue().suggestions);
+            }
+        });
+        running = task;
+        executor.execute(task);
+    }
+
+    /**
+     * Shows the suggested names below the search field. Choosing
+     * a name puts it in the field, which starts a new search.
+     *
+     * @param names the suggested names
+     */
+    private void showSuggestions(List<String> names) {
+        suggestionMenu.getItems().clear();
+        String text = searchField.getText().trim().toUpperCase();
+        for (String name : names) {
+            if (!name.equals(text)) {
+                MenuItem item = new MenuItem(name);
+                item.setOnAction(event -> {
+                    searchField.setText(name);
+                    searchField.positionCaret(name.length());
+                });
+                suggestionMenu.getItems().add(item);
+            }
+        }
+        if (suggestionMenu.getItems().isEmpty() || !searchField.isFocused()) {
+            suggestionMenu.hide();
+        } else if (!suggestionMenu.isShowing()) {
+            suggestionMenu.show(searchField, Side.BOTTOM, 0, 0);
+        }
+    }
+
+    /**
+     * The result of a search with the suggested names.
+     */
+    private static class LiveResult {
+        private final SearchResult result; // The addresses found
+        private final List<String> suggestions; // Names suggested for the text
+
+        LiveResult(SearchResult result, List<String> suggestions) {
+            this.result = result;
+            this.suggestions = suggestions;
+        }
+    }
+}
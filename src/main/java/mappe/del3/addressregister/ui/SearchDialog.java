@@ -1,6 +1,7 @@
 package mappe.del3.addressregister.ui;
 
 import javafx.scene.control.*;
+import mappe.del3.addressregister.AddressField;
 import mappe.del3.addressregister.AddressRegister;
 
 import java.util.Optional;
@@ -104,5 +105,72 @@ public class SearchDialog extends Dialog<String> {
         result.ifPresent(s -> addressRegister.searchByCategory(s.toUpperCase().charAt(0)));
     }
 
-}
+    /**
+     * Creates dialog for searching by a postal or municipality name
+     * that may be misspelled. Sends the result to the searchFuzzy
+     * method in AddressRegister, which allows up to two edits.
+     *
+     * @param field POSTAL or MUNICIPALITY_NAME
+     * @param fieldName the name of the field shown in the dialog
+     */
+    public void fuzzy(AddressField field, String fieldName) {
+        TextInputDialog dialog = new TextInputDialog("TRONDHEIM");
+        dialog.setTitle("Search - " + fieldName + " (similar)");
+        dialog.setHeaderText("Search in register by " + fieldName + "\n"
+                + "Also finds names with up to two letters wrong");
+        dialog.setContentText("Please enter a name:");
+
+        Optional<String> result = dialog.showAndWait();
+        result.ifPresent(s -> addressRegister.searchFuzzy(field, s, 2));
+    }
+
+    /**
+     * Creates dialog for searching by a part of a postal or municipality
+     * name. Sends the result to the searchInfix method in AddressRegister.
+     *
+     * @param field POSTAL or MUNICIPALITY_NAME
+     * @param fieldName the name of the field shown in the dialog
+     */
+    public void containing(AddressField field, String fieldName) {
+        TextInputDialog dialog = new TextInputDialog("VIK");
+        dialog.setTitle("Search - " + fieldName + " (containing)");
+        dialog.setHeaderText("Search in register by any part of " + fieldName);
+        dialog.setContentText("Please enter a part of the name:");
 
+        Optional<String> result = dialog.showAndWait();
+        result.ifPresent(s -> addressRegister.searchInfix(field, s));
+    }
+
+    /**
+     * Creates dialog for searching with a query on several fields,
+     * for example "zip:50 AND category:P". Sends the result to the
+     * searchByQuery method in AddressRegister. Shows an error alert
+     * if the query is not valid.
+     *
+     * @return true if the query was run, false if it was cancelled or not valid
+     */
+    public boolean byQuery() {
+        TextInputDialog dialog = new TextInputDialog("zip:00 AND category:P");
+        dialog.setTitle("Search - Query");
+        dialog.setHeaderText("Search in register with a query\n"
+                + "Fields: zip, postal, municipalcode, municipality, category\n"
+                + "Combine with AND, OR and parentheses");
+        dialog.setContentText("Please enter a query:");
+
+        Optional<String> result = dialog.showAndWait();
+        if (!result.isPresent()) {
+            return false;
+        }
+        try {
+            addressRegister.searchByQuery(result.get());
+            return true;
+        } catch (IllegalArgumentException e) {
+            Alert alert = new Alert(Alert.AlertType.ERROR);
+            alert.setTitle("Search - Query");
+            alert.setHeaderText("Query is not valid");
+            alert.setContentText(e.getMessage());
+            alert.showAndWait();
+            return false;
+        }
+    }
+}
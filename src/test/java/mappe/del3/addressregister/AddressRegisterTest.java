@@ -1,10 +1,25 @@
 package mappe.del3.addressregister;
 
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 /**
@@ -54,6 +69,33 @@ public class AddressRegisterTest {
         }
     }
 
+    @Nested
+    @DisplayName("Creating addresses through the factory")
+    public class AddressFactoryTest {
+
+        @Test
+        @DisplayName("Factory address is equal to a constructed address")
+        public void factoryEqualsConstructor() {
+            assertEquals(new Address(1, "Oslo", 301, "Oslo", 'P'), AddressFactory.create(1, "Oslo", 301, "Oslo", 'P'));
+        }
+
+        @Test
+        @DisplayName("Equal names share one String")
+        public void namesAreShared() {
+            Address first = AddressFactory.create(1, "Oslo", 301, "oslo", 'P');
+            Address second = AddressFactory.create(2, "OSLO", 301, "Oslo", 'P');
+            assertSame(first.getPostal(), second.getPostal());
+            assertSame(first.getPostal(), second.getMunicipalityName());
+        }
+
+        @Test
+        @DisplayName("Factory has the same rules as the constructor")
+        public void factoryValidates() {
+            assertThrows(IllegalArgumentException.class, () -> AddressFactory.create(10000, "Oslo", 301, "Oslo", 'P'));
+            assertThrows(IllegalArgumentException.class, () -> AddressFactory.create(1, "", 301, "Oslo", 'P'));
+        }
+    }
+
     @Nested
     @DisplayName("Adding addresses to register test, positive and negative")
     public class addAddresssTest {
@@ -107,6 +149,14 @@ public class AddressRegisterTest {
             register.addAddress(new Address(4134, "casd", 0301, "Oslo", 'P'));
         }
 
+        @Test
+        @DisplayName("Search by category, as typed in the live search bar, is not case-sensitive")
+        public void categorySearchIgnoresCase() {
+            assertEquals(5, register.search(AddressField.CATEGORY, "p").size());
+            assertEquals(5, register.search(AddressField.CATEGORY, "P").size());
+            assertEquals(0, register.search(AddressField.CATEGORY, "g").size());
+        }
+
         @Test
         @DisplayName("Searches by zipCode with two digits gives correct numbers of addresses")
         public void searchByZipCodeWithTwoDigits() {
@@ -143,4 +193,759 @@ public class AddressRegisterTest {
         }
 
     }
+
+    @Nested
+    @DisplayName("Search indexes are kept in sync with the register")
+    public class SearchIndexTest {
+
+        @BeforeEach
+        @DisplayName("Adds addresses before each index test")
+        public void addAddresses() {
+            register.clearRegister();
+            register.addAddress(new Address(3123, "Larvik", 3805, "Larvik", 'P'));
+            register.addAddress(new Address(3124, "Larvik", 3805, "Larvik", 'B'));
+            register.addAddress(new Address(8514, "Narvik", 1806, "Narvik", 'P'));
+        }
+
+        @Test
+        @DisplayName("Removed address is no longer found by search")
+        public void removedAddressIsNotFound() {
+            register.removeAddress(new Address(3124, "Larvik", 3805, "Larvik", 'B'));
+            register.searchByZipCode("312");
+            assertEquals(1, register.getAddressesBySearch().size());
+            register.searchByCategory('B');
+            assertEquals(0, register.getAddressesBySearch().size());
+        }
+
+        @Test
+        @DisplayName("Edited address is found by its new values")
+        public void editedAddressIsFound() {
+            register.addAddress(new Address(8515, "Narvik", 1806, "Narvik", 'G'));
+            register.removeAddress(new Address(8514, "Narvik", 1806, "Narvik", 'P'));
+            register.searchByMunicipalityName("narv");
+            assertEquals(1, register.getAddressesBySearch().size());
+            assertEquals("8515", register.getAddressesBySearch().iterator().next().getZipCode());
+        }
+
+        @Test
+        @DisplayName("Cleared register gives no search results")
+        public void clearedRegisterGivesNoResults() {
+            register.clearRegister();
+            register.searchByPostal("L");
+            assertEquals(0, register.getAddressesBySearch().size());
+        }
+
+        @Test
+        @DisplayName("Searches by municipal code only match the prefix")
+        public void searchByMunicipalCodePrefix() {
+            register.searchByMunicipalCode("38");
+            assertEquals(2, register.getAddressesBySearch().size());
+            register.searchByMunicipalCode("8");
+            assertEquals(0, register.getAddressesBySearch().size());
+        }
+    }
+
+    @Nested
+    @DisplayName("Adding many addresses at once")
+    public class AddAllTest {
+
+        @BeforeEach
+        @DisplayName("Clears the register before each bulk test")
+        public void clear() {
+            register.clearRegister();
+        }
+
+        @Test
+        @DisplayName("Duplicates are counted and skipped")
+        public void duplicatesAreSkipped() {
+            register.addAddress(new Address(1001, "Oslo", 301, "Oslo", 'P'));
+            ImportSummary summary = register.addAll(List.of(
+                    new Address(1001, "Oslo", 301, "Oslo", 'P'),
+                    new Address(1002, "Oslo", 301, "Oslo", 'P'),
+                    new Address(1002, "Oslo", 301, "Oslo", 'P')));
+            assertEquals(1, summary.getAccepted());
+            assertEquals(2, summary.getDuplicates());
+            assertEquals(2, register.getAddresses().size());
+        }
+
+        @Test
+        @DisplayName("Added addresses are searchable and keep their order")
+        public void addedAddressesAreIndexed() {
+            register.addAll(List.of(
+                    new Address(2001, "Bergen", 4601, "Bergen", 'P'),
+                    new Address(1001, "Oslo", 301, "Oslo", 'P')));
+            assertEquals("2001", register.getAddresses().iterator().next().getZipCode());
+            register.searchByPostal("berg");
+            assertEquals(1, register.getAddressesBySearch().size());
+        }
+    }
+
+    @Nested
+    @DisplayName("Register stays correct after many removals")
+    public class CompactTest {
+
+        @Test
+        @DisplayName("Remaining addresses keep their order and are found by search")
+        public void removeMostAddresses() {
+            register.clearRegister();
+            for (int i = 1; i <= 3000; i++) {
+                register.addAddress(new Address(i, "Postal" + (i % 10), i, "Kommune", 'P'));
+            }
+            for (int i = 1; i <= 3000; i++) {
+                if (i % 3 != 0) {
+                    register.removeAddress(new Address(i, "Postal" + (i % 10), i, "Kommune", 'P'));
+                }
+            }
+            assertEquals(1000, register.getAddresses().size());
+            assertEquals("0003", register.getAddresses().iterator().next().getZipCode());
+            assertTrue(register.contains(new Address(2997, "Postal7", 2997, "Kommune", 'P')));
+
+            register.searchByPostal("postal3");
+            assertEquals(100, register.getAddressesBySearch().size());
+            assertThrows(IllegalArgumentException.class,
+                    () -> register.removeAddress(new Address(1, "Postal1", 1, "Kommune", 'P')));
+        }
+    }
+
+    @Nested
+    @DisplayName("Using the register from several threads")
+    public class ConcurrencyTest {
+        private static final int THREADS = 8;
+        private static final int OPERATIONS = 3000;
+
+        @BeforeEach
+        @DisplayName("Clears the register before each concurrency test")
+        public void clear() {
+            register.clearRegister();
+        }
+
+        /**
+         * Runs the task on several threads at the same time, and
+         * fails if any of the threads throws an exception.
+         */
+        private void runConcurrently(IntConsumer task) throws Exception {
+            ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                int thread = t;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    task.accept(thread);
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+            executor.shutdown();
+        }
+
+        @Test
+        @DisplayName("Concurrent add, remove and search keep each thread's addresses")
+        public void addRemoveAndSearch() throws Exception {
+            // Each thread owns the zip codes starting with its own digit.
+            List<Set<Address>> expected = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                expected.add(ConcurrentHashMap.newKeySet());
+            }
+
+            runConcurrently(thread -> {
+                Random random = new Random(thread);
+                Set<Address> own = expected.get(thread);
+                for (int i = 0; i < OPERATIONS; i++) {
+                    Address address = new Address((thread + 1) * 1000 + random.nextInt(1000), "Postal" + thread,
+                            301, "Kommune", 'P');
+                    if (own.contains(address)) {
+                        register.removeAddress(address);
+                        own.remove(address);
+                    } else {
+                        register.addAddress(address);
+                        own.add(address);
+                    }
+                    // Every search result must match the search, whatever the other threads do.
+                    for (Address found : register.search(AddressField.ZIP_CODE, String.valueOf(thread + 1))) {
+                        assertTrue(found.getZipCode().startsWith(String.valueOf(thread + 1)));
+                    }
+                }
+            });
+
+            for (int t = 0; t < THREADS; t++) {
+                assertEquals(expected.get(t), new HashSet<>(register.search(AddressField.ZIP_CODE, String.valueOf(t + 1))));
+            }
+            int total = expected.stream().mapToInt(Set::size).sum();
+            assertEquals(total, register.getAddresses().size());
+            assertEquals(total, new HashSet<>(register.getAddresses()).size());
+        }
+
+        @Test
+        @DisplayName("Concurrent clear, bulk add and search never see a broken register")
+        public void clearAddAllAndSearch() throws Exception {
+            runConcurrently(thread -> {
+                Random random = new Random(thread);
+                for (int i = 0; i < OPERATIONS / 10; i++) {
+                    switch (random.nextInt(4)) {
+                        case 0:
+                            register.clearRegister();
+                            break;
+                        case 1:
+                            List<Address> batch = new ArrayList<>();
+                            for (int j = 0; j < 50; j++) {
+                                batch.add(new Address(random.nextInt(9999) + 1, "Bulk", 301, "Kommune", 'B'));
+                            }
+                            ImportSummary summary = register.addAll(batch);
+                            assertEquals(batch.size(), summary.getAccepted() + summary.getDuplicates());
+                            break;
+                        default:
+                            for (Address found : register.search(AddressField.CATEGORY, "B")) {
+                                assertEquals('B', found.getCategory());
+                            }
+                    }
+                }
+            });
+
+            Set<Address> unique = new HashSet<>(register.getAddresses());
+            assertEquals(unique.size(), register.getAddresses().size());
+            assertEquals(unique.size(), register.search(AddressField.POSTAL, "Bulk").size());
+        }
+    }
+
+    @Nested
+    @DisplayName("Snapshots are not changed by later changes")
+    public class SnapshotTest {
+
+        @BeforeEach
+        @DisplayName("Adds addresses before each snapshot test")
+        public void addAddresses() {
+            register.clearRegister();
+            for (int i = 1; i <= 2000; i++) {
+                register.addAddress(new Address(i, "Postal", 301, "Oslo", 'P'));
+            }
+        }
+
+        @Test
+        @DisplayName("Snapshot keeps removed addresses and does not see new ones")
+        public void snapshotIsIsolated() {
+            RegisterSnapshot snapshot = register.snapshot();
+            register.removeAddress(new Address(1, "Postal", 301, "Oslo", 'P'));
+            register.addAddress(new Address(1, "Other", 301, "Oslo", 'P'));
+
+            assertEquals(2000, snapshot.size());
+            assertEquals(new Address(1, "Postal", 301, "Oslo", 'P'), snapshot.iterator().next());
+            assertFalse(new HashSet<>(snapshot).contains(new Address(1, "Other", 301, "Oslo", 'P')));
+            assertTrue(register.snapshot().getVersion() > snapshot.getVersion());
+        }
+
+        @Test
+        @DisplayName("Snapshot survives compaction and clear")
+        public void snapshotSurvivesCompactionAndClear() {
+            RegisterSnapshot snapshot = register.snapshot();
+            for (int i = 1; i <= 1500; i++) {
+                register.removeAddress(new Address(i, "Postal", 301, "Oslo", 'P'));
+            }
+            register.clearRegister();
+
+            int count = 0;
+            for (Address address : snapshot) {
+                assertEquals("POSTAL", address.getPostal());
+                count++;
+            }
+            assertEquals(2000, count);
+        }
+    }
+
+    @Nested
+    @DisplayName("Searching with queries on several fields")
+    public class QueryTest {
+
+        @BeforeEach
+        @DisplayName("Adds addresses before each query test")
+        public void addAddresses() {
+            register.clearRegister();
+            register.addAddress(new Address(5003, "Bergen", 4601, "Bergen", 'G'));
+            register.addAddress(new Address(5004, "Bergen", 4601, "Bergen", 'P'));
+            register.addAddress(new Address(5020, "Bergen", 4601, "Bergen", 'P'));
+            register.addAddress(new Address(8610, "Mo i Rana", 1833, "Rana", 'P'));
+            register.addAddress(new Address(1, "Oslo", 301, "Oslo", 'P'));
+        }
+
+        @Test
+        @DisplayName("Conjunction gives the addresses matching both fields")
+        public void conjunction() {
+            register.searchByQuery("zip:50 AND category:P");
+            assertEquals(2, register.getAddressesBySearch().size());
+        }
+
+        @Test
+        @DisplayName("Category is not case-sensitive")
+        public void lowerCaseCategory() {
+            assertEquals(4, register.query(AddressQuery.parse("category:p")).size());
+            assertEquals(2, register.query(AddressQuery.parse("zip:50 AND category:p")).size());
+        }
+
+        @Test
+        @DisplayName("AND binds tighter than OR, and parentheses group")
+        public void precedenceAndParentheses() {
+            assertEquals(3, register.query(AddressQuery.parse("postal:oslo OR zip:50 AND category:P")).size());
+            assertEquals(2, register.query(AddressQuery.parse("(postal:oslo OR zip:50) and category:G OR zip:0001")).size());
+        }
+
+        @Test
+        @DisplayName("Quoted terms can contain spaces, and results keep insertion order")
+        public void quotedTermsAndOrder() {
+            List<Address> result = register.query(AddressQuery.parse("postal:\"mo i\" OR municipality:bergen"));
+            assertEquals(4, result.size());
+            assertEquals("5003", result.get(0).getZipCode());
+            assertEquals("8610", result.get(3).getZipCode());
+        }
+
+        @Test
+        @DisplayName("Invalid query is not accepted")
+        public void invalidQuery() {
+            assertThrows(IllegalArgumentException.class, () -> register.searchByQuery("zip 50"));
+            assertThrows(IllegalArgumentException.class, () -> register.searchByQuery("street:x"));
+            assertThrows(IllegalArgumentException.class, () -> register.searchByQuery("(zip:50"));
+        }
+    }
+
+    @Nested
+    @DisplayName("Bitmap indexes for category and first zip code digit")
+    public class BitmapIndexTest {
+
+        @Test
+        @DisplayName("Bitmap gives the same rows as a set, also when chunks change representation")
+        public void bitmapMatchesSet() {
+            RowBitmap even = new RowBitmap();
+            RowBitmap thirds = new RowBitmap();
+            Set<Integer> expected = new HashSet<>();
+            for (int row = 0; row < 200000; row++) {
+                if (row % 2 == 0) {
+                    even.add(row);
+                }
+                if (row % 3 == 0 || row > 150000 && row % 100 == 1) {
+                    thirds.add(row);
+                }
+            }
+            for (int row = 0; row < 200000; row += 4) {
+                even.remove(row);
+            }
+            for (int row = 0; row < 200000; row++) {
+                if (row % 4 == 2 && (row % 3 == 0 || row > 150000 && row % 100 == 1)) {
+                    expected.add(row);
+                }
+            }
+            RowBitmap both = even.and(thirds);
+            assertEquals(50000, even.cardinality());
+            assertEquals(expected.size(), both.cardinality());
+            IntList rows = both.toIntList();
+            for (int i = 0; i < rows.size(); i++) {
+                assertTrue(expected.contains(rows.get(i)));
+                assertTrue(i == 0 || rows.get(i - 1) < rows.get(i));
+            }
+            assertFalse(both.contains(4));
+            assertTrue(both.contains(6));
+        }
+
+        @Test
+        @DisplayName("A dense bitmap takes about one bit per row")
+        public void bitmapCompresses() {
+            RowBitmap bitmap = new RowBitmap();
+            for (int row = 0; row < 1000000; row++) {
+                bitmap.add(row);
+            }
+            assertEquals(1000000, bitmap.cardinality());
+            assertTrue(bitmap.sizeInBytes() <= 1000000 / 8 + 8192);
+        }
+
+        @Test
+        @DisplayName("Counts by category follow adds, removes and compaction")
+        public void countByCategory() {
+            register.clearRegister();
+            for (int i = 1; i <= 3000; i++) {
+                register.addAddress(new Address(i, "Postal", i, "Kommune", i % 3 == 0 ? 'G' : 'P'));
+            }
+            assertEquals(1000, register.countByCategory('G'));
+            assertEquals(2000, register.countByCategory('P'));
+            assertEquals(0, register.countByCategory('S'));
+
+            for (int i = 1; i <= 3000; i++) {
+                if (i % 3 != 0) {
+                    register.removeAddress(new Address(i, "Postal", i, "Kommune", 'P'));
+                }
+            }
+            assertEquals(1000, register.countByCategory('G'));
+            assertEquals(0, register.countByCategory('P'));
+
+            register.searchByCategory('G');
+            assertEquals(1000, register.getAddressesBySearch().size());
+            register.searchByQuery("category:G AND zip:2");
+            assertEquals(333, register.getAddressesBySearch().size());
+            register.searchByQuery("category:G AND zip:2 AND postal:post");
+            assertEquals(333, register.getAddressesBySearch().size());
+        }
+    }
+
+    @Nested
+    @DisplayName("Fuzzy search by postal and municipality name")
+    public class FuzzySearchTest {
+
+        @BeforeEach
+        @DisplayName("Adds addresses before each fuzzy search test")
+        public void addAddresses() {
+            register.clearRegister();
+            register.addAddress(new Address(7010, "Trondheim", 5001, "Trondheim", 'P'));
+            register.addAddress(new Address(1337, "Sandvika", 3024, "Bærum", 'G'));
+            register.addAddress(new Address(1338, "Sandvika", 3024, "Bærum", 'P'));
+            register.addAddress(new Address(2000, "Lillestrøm", 3030, "Lillestrøm", 'G'));
+            register.addAddress(new Address(8000, "Bodø", 1804, "Bodø", 'G'));
+        }
+
+        @Test
+        @DisplayName("Misspelled names are found within the max distance")
+        public void misspelledNames() {
+            assertEquals(1, register.fuzzySearch(AddressField.POSTAL, "trondhiem", 2).size());
+            assertEquals(0, register.fuzzySearch(AddressField.POSTAL, "trondhiem", 1).size());
+            assertEquals(2, register.fuzzySearch(AddressField.POSTAL, "sandvka", 1).size());
+        }
+
+        @Test
+        @DisplayName("Æ, Ø and Å match AE, OE and AA")
+        public void foldedLetters() {
+            assertEquals(2, register.fuzzySearch(AddressField.MUNICIPALITY_NAME, "baerum", 0).size());
+            assertEquals("BODØ", register.fuzzySearch(AddressField.POSTAL, "BODOE", 0).get(0).getPostal());
+            assertEquals(0, FuzzyNameIndex.distance(FuzzyNameIndex.fold("Lillestrøm"), FuzzyNameIndex.fold("LILLESTROEM")));
+        }
+
+        @Test
+        @DisplayName("Closest names come first and removed addresses are not found")
+        public void rankingAndRemoval() {
+            FuzzyNameIndex names = new FuzzyNameIndex();
+            for (String name : new String[]{"BERGEN", "BERGER", "BJERGEN", "HAMAR", "BERG"}) {
+                names.add(name);
+            }
+            List<FuzzyNameIndex.Match> matches = names.search("bergen", 2);
+            assertEquals(4, matches.size());
+            assertEquals("BERGEN", matches.get(0).getName());
+            assertEquals("BERGER", matches.get(1).getName());
+            assertEquals(2, matches.get(3).getDistance());
+
+            register.removeAddress(new Address(7010, "Trondheim", 5001, "Trondheim", 'P'));
+            assertTrue(register.fuzzySearch(AddressField.POSTAL, "trondheim", 2).isEmpty());
+            assertThrows(IllegalArgumentException.class, () -> register.fuzzySearch(AddressField.ZIP_CODE, "7010", 1));
+        }
+    }
+
+    @Nested
+    @DisplayName("Infix search by postal and municipality name")
+    public class InfixSearchTest {
+
+        @BeforeEach
+        @DisplayName("Adds addresses before each infix search test")
+        public void addAddresses() {
+            register.clearRegister();
+            register.addAddress(new Address(3251, "Larvik", 3805, "Larvik", 'G'));
+            register.addAddress(new Address(8514, "Narvik", 1806, "Narvik", 'P'));
+            register.addAddress(new Address(1337, "Sandvika", 3024, "Bærum", 'G'));
+            register.addAddress(new Address(3260, "Larvik", 3805, "Larvik", 'P'));
+            register.addAddress(new Address(2000, "Lillestrøm", 3030, "Lillestrøm", 'G'));
+            register.addAddress(new Address(9990, "Båtsfjord", 5632, "Båtsfjord", 'G'));
+        }
+
+        @Test
+        @DisplayName("Names containing the term are found in insertion order")
+        public void containsTerm() {
+            List<Address> result = register.infixSearch(AddressField.POSTAL, "vik");
+            assertEquals(4, result.size());
+            assertEquals("3251", result.get(0).getZipCode());
+            assertEquals("3260", result.get(3).getZipCode());
+            assertEquals(3, register.infixSearch(AddressField.POSTAL, "arvik").size());
+            assertEquals(1, register.infixSearch(AddressField.POSTAL, "narvi").size());
+            assertEquals(0, register.infixSearch(AddressField.POSTAL, "vikk").size());
+        }
+
+        @Test
+        @DisplayName("Norwegian letters and short terms are found")
+        public void norwegianLettersAndShortTerms() {
+            assertEquals(1, register.infixSearch(AddressField.MUNICIPALITY_NAME, "ærum").size());
+            assertEquals(1, register.infixSearch(AddressField.POSTAL, "strØm").size());
+            assertEquals(1, register.infixSearch(AddressField.POSTAL, "å").size());
+            assertEquals(6, register.infixSearch(AddressField.POSTAL, "").size());
+        }
+
+        @Test
+        @DisplayName("Removed addresses are not found")
+        public void removedAddresses() {
+            register.removeAddress(new Address(8514, "Narvik", 1806, "Narvik", 'P'));
+            assertEquals(0, register.infixSearch(AddressField.MUNICIPALITY_NAME, "narv").size());
+            assertThrows(IllegalArgumentException.class, () -> register.infixSearch(AddressField.CATEGORY, "G"));
+        }
+    }
+
+    @Nested
+    @DisplayName("Search results as pages of row numbers")
+    public class SearchResultTest {
+
+        @BeforeEach
+        @DisplayName("Adds addresses before each search result test")
+        public void addAddresses() {
+            register.clearRegister();
+            for (int i = 1; i <= 250; i++) {
+                register.addAddress(new Address(i, "Postal", i, "Kommune", 'P'));
+            }
+        }
+
+        @Test
+        @DisplayName("Pages give parts of the result with the total as size")
+        public void pages() {
+            SearchResult result = register.search(AddressField.ZIP_CODE, "0");
+            assertEquals(250, result.size());
+            List<Address> page = result.page(100, 100);
+            assertEquals(100, page.size());
+            assertEquals("0101", page.get(0).getZipCode());
+            assertEquals(50, result.page(200, 100).size());
+            assertTrue(result.page(300, 100).isEmpty());
+            assertThrows(IllegalArgumentException.class, () -> result.page(-1, 10));
+            assertThrows(IndexOutOfBoundsException.class, () -> result.get(250));
+        }
+
+        @Test
+        @DisplayName("A result does not change when the register changes")
+        public void resultIsStable() {
+            SearchResult result = register.allAddresses();
+            long version = result.getVersion();
+            register.removeAddress(new Address(1, "Postal", 1, "Kommune", 'P'));
+            register.addAddress(new Address(9999, "Postal", 9999, "Kommune", 'P'));
+            assertEquals(250, result.size());
+            assertEquals("0001", result.get(0).getZipCode());
+            assertEquals(version, result.getVersion());
+            assertEquals(250, register.allAddresses().size());
+            assertEquals("0002", register.allAddresses().get(0).getZipCode());
+        }
+    }
+
+    @Nested
+    @DisplayName("Cache of search results")
+    public class SearchCacheTest {
+
+        @BeforeEach
+        @DisplayName("Adds addresses before each search cache test")
+        public void addAddresses() {
+            register.clearRegister();
+            register.setSearchCacheCapacity(64);
+            register.addAddress(new Address(1, "Oslo", 301, "Oslo", 'P'));
+            register.addAddress(new Address(5003, "Bergen", 4601, "Bergen", 'G'));
+        }
+
+        @Test
+        @DisplayName("The same search with the same normalized term is a hit")
+        public void repeatedSearchIsHit() {
+            long hits = register.getSearchCacheHits();
+            long misses = register.getSearchCacheMisses();
+            SearchResult first = register.search(AddressField.MUNICIPALITY_NAME, "oslo");
+            SearchResult second = register.search(AddressField.MUNICIPALITY_NAME, "OSLO");
+            assertSame(first, second);
+            assertEquals(hits + 1, register.getSearchCacheHits());
+            assertEquals(misses + 1, register.getSearchCacheMisses());
+        }
+
+        @Test
+        @DisplayName("Changes to the register make cached results out of date")
+        public void changesInvalidate() {
+            assertEquals(1, register.search(AddressField.ZIP_CODE, "00").size());
+            register.addAddress(new Address(2, "Oslo", 301, "Oslo", 'P'));
+            assertEquals(2, register.search(AddressField.ZIP_CODE, "00").size());
+            register.removeAddress(new Address(1, "Oslo", 301, "Oslo", 'P'));
+            assertEquals(1, register.search(AddressField.ZIP_CODE, "00").size());
+            register.clearRegister();
+            assertEquals(0, register.search(AddressField.ZIP_CODE, "00").size());
+        }
+
+        @Test
+        @DisplayName("Queries with the same text but another structure do not share a result")
+        public void structureIsKey() {
+            AddressQuery threeParts = AddressQuery.and(AddressQuery.field(AddressField.POSTAL, "os"),
+                    AddressQuery.field(AddressField.POSTAL, "os"), AddressQuery.field(AddressField.ZIP_CODE, "0"));
+            // The term has the separator of the parts, so the text of both queries is the same
+            AddressQuery twoParts = AddressQuery.and(AddressQuery.field(AddressField.POSTAL, "os AND postal:os"),
+                    AddressQuery.field(AddressField.ZIP_CODE, "0"));
+            assertEquals(threeParts.toString(), twoParts.toString());
+            assertNotEquals(threeParts, twoParts);
+
+            assertEquals(1, register.query(threeParts).size());
+            assertEquals(0, register.query(twoParts).size());
+            assertEquals(threeParts, AddressQuery.parse("postal:os AND postal:OS AND zip:0"));
+        }
+
+        @Test
+        @DisplayName("Search on an interrupted thread is cancelled and not cached")
+        public void interruptedSearchIsCancelled() {
+            Thread.currentThread().interrupt();
+            try {
+                assertThrows(CancellationException.class, () -> register.search(AddressField.ZIP_CODE, "00"));
+                assertThrows(CancellationException.class,
+                        () -> register.query(AddressQuery.parse("zip:00 AND category:P")));
+            } finally {
+                assertTrue(Thread.interrupted());
+            }
+            long hits = register.getSearchCacheHits();
+            assertEquals(1, register.search(AddressField.ZIP_CODE, "00").size());
+            assertEquals(hits, register.getSearchCacheHits());
+        }
+
+        @Test
+        @DisplayName("The least recently used result is removed when the cache is full")
+        public void leastRecentlyUsedIsRemoved() {
+            SearchCache cache = new SearchCache(2);
+            SearchResult result = SearchResult.empty();
+            AddressQuery a = AddressQuery.field(AddressField.POSTAL, "a");
+            AddressQuery b = AddressQuery.field(AddressField.POSTAL, "b");
+            cache.put(a, result);
+            cache.put(b, result);
+            cache.get(a, 0);
+            cache.put(AddressQuery.field(AddressField.POSTAL, "c"), result);
+            assertEquals(2, cache.size());
+            assertNull(cache.get(b, 0));
+            assertSame(result, cache.get(AddressQuery.field(AddressField.POSTAL, "A"), 0));
+            assertNull(cache.get(a, 1));
+            assertEquals(1, cache.size());
+            cache.setCapacity(0);
+            assertEquals(0, cache.size());
+        }
+    }
+
+    @Nested
+    @DisplayName("Refining the last search while typing")
+    public class RefinementTest {
+
+        @BeforeEach
+        @DisplayName("Adds addresses before each refinement test")
+        public void addAddresses() {
+            register.clearRegister();
+            for (int i = 1; i <= 300; i++) {
+                register.addAddress(new Address(i, "Postal" + i, i, "Kommune", 'P'));
+            }
+        }
+
+        @Test
+        @DisplayName("Extending the term filters the last result")
+        public void extendedTermIsRefined() {
+            long refinements = register.getRefinements();
+            assertEquals(300, register.search(AddressField.ZIP_CODE, "0").size());
+            assertEquals(99, register.search(AddressField.ZIP_CODE, "00").size());
+            assertEquals(10, register.search(AddressField.ZIP_CODE, "001").size());
+            assertEquals("0010", register.search(AddressField.ZIP_CODE, "001").get(0).getZipCode());
+            assertEquals(refinements + 2, register.getRefinements());
+
+            assertEquals(111, register.search(AddressField.POSTAL, "postal1").size());
+            assertEquals(11, register.search(AddressField.POSTAL, "Postal10").size());
+            assertEquals(refinements + 3, register.getRefinements());
+        }
+
+        @Test
+        @DisplayName("The last result is not used after a change or for a new term")
+        public void notRefinedAfterChange() {
+            register.search(AddressField.ZIP_CODE, "00");
+            register.addAddress(new Address(5, "Extra", 5, "Kommune", 'G'));
+            long refinements = register.getRefinements();
+            assertEquals(2, register.search(AddressField.ZIP_CODE, "0005").size());
+            assertEquals(100, register.search(AddressField.ZIP_CODE, "01").size());
+            assertEquals(refinements, register.getRefinements());
+        }
+    }
+
+    @Nested
+    @DisplayName("Suggesting names while typing")
+    public class SuggestNamesTest {
+
+        @Test
+        @DisplayName("Names with most addresses come first, and removed names are not suggested")
+        public void mostCommonNamesFirst() {
+            register.clearRegister();
+            register.addAddress(new Address(1, "Sandvika", 1, "Bærum", 'P'));
+            register.addAddress(new Address(2, "Sandnes", 2, "Sandnes", 'P'));
+            register.addAddress(new Address(3, "Sandnes", 3, "Sandnes", 'P'));
+            register.addAddress(new Address(4, "Sande", 4, "Sande", 'P'));
+            register.addAddress(new Address(5, "Oslo", 5, "Oslo", 'P'));
+
+            assertEquals(List.of("SANDNES", "SANDE", "SANDVIKA"), register.suggestNames(AddressField.POSTAL, "san", 5));
+            assertEquals(List.of("SANDNES", "SANDE"), register.suggestNames(AddressField.POSTAL, "san", 2));
+            register.removeAddress(new Address(4, "Sande", 4, "Sande", 'P'));
+            assertEquals(List.of("SANDNES"), register.suggestNames(AddressField.MUNICIPALITY_NAME, "s", 5));
+            assertThrows(IllegalArgumentException.class, () -> register.suggestNames(AddressField.ZIP_CODE, "0", 5));
+        }
+    }
+
+    @Nested
+    @DisplayName("Listeners are told about changes to the register")
+    public class RegisterEventTest {
+        private final List<RegisterEvent> events = new ArrayList<>();
+        private final RegisterListener listener = events::add;
+
+        @BeforeEach
+        @DisplayName("Clears the register and adds a listener before each event test")
+        public void addListener() {
+            register.clearRegister();
+            events.clear();
+            register.addListener(listener);
+        }
+
+        @AfterEach
+        @DisplayName("Removes the listener after each event test")
+        public void removeListener() {
+            register.removeListener(listener);
+        }
+
+        @Test
+        @DisplayName("Single changes give one event with the address")
+        public void singleChanges() {
+            Address oslo = new Address(1, "Oslo", 301, "Oslo", 'P');
+            Address bergen = new Address(5003, "Bergen", 4601, "Bergen", 'G');
+            register.addAddress(oslo);
+            register.replaceAddress(oslo, bergen);
+            register.removeAddress(bergen);
+
+            assertEquals(3, events.size());
+            assertEquals(RegisterEvent.Type.ADDED, events.get(0).getType());
+            assertEquals(oslo, events.get(0).getAddress());
+            assertEquals(RegisterEvent.Type.REPLACED, events.get(1).getType());
+            assertEquals(oslo, events.get(1).getPrevious());
+            assertEquals(bergen, events.get(1).getAddress());
+            assertEquals(RegisterEvent.Type.REMOVED, events.get(2).getType());
+            assertTrue(events.get(0).getVersion() < events.get(1).getVersion());
+            assertFalse(register.contains(oslo));
+        }
+
+        @Test
+        @DisplayName("Many addresses added at once give one event")
+        public void bulkChanges() {
+            List<Address> addresses = new ArrayList<>();
+            for (int i = 1; i <= 100; i++) {
+                addresses.add(new Address(i, "Postal", i, "Kommune", 'P'));
+            }
+            register.addAll(addresses);
+            register.addAll(addresses);
+            register.clearRegister();
+
+            assertEquals(2, events.size());
+            assertEquals(RegisterEvent.Type.BULK_ADDED, events.get(0).getType());
+            assertEquals(100, events.get(0).getCount());
+            assertEquals(RegisterEvent.Type.CLEARED, events.get(1).getType());
+        }
+
+        @Test
+        @DisplayName("A failed change gives no event and does not change the register")
+        public void failedChanges() {
+            Address oslo = new Address(1, "Oslo", 301, "Oslo", 'P');
+            Address bergen = new Address(5003, "Bergen", 4601, "Bergen", 'G');
+            register.addAddress(oslo);
+            register.addAddress(bergen);
+            events.clear();
+
+            assertThrows(IllegalArgumentException.class, () -> register.replaceAddress(oslo, bergen));
+            assertThrows(IllegalArgumentException.class, () -> register.removeAddress(new Address(2, "Oslo", 301, "Oslo", 'P')));
+            assertTrue(events.isEmpty());
+            assertTrue(register.contains(oslo));
+        }
+    }
 }
@@ -0,0 +1,93 @@
+package mappe.del3.addressregister.cli;
+
+import mappe.del3.addressregister.Address;
+import mappe.del3.addressregister.percistence.CsvReader;
+import mappe.del3.addressregister.percistence.TxtReader;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Junit tests for the command line entry point.
+ *
+ * @author Sindre Glomnes
+ * @version 2021-05-14
+ */
+public class AddressRegisterCliTest {
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+    private int run(String... args) {
+        return AddressRegisterCli.run(args, new PrintStream(out, true, StandardCharsets.UTF_8),
+                new PrintStream(err, true, StandardCharsets.UTF_8));
+    }
+
+    private Path write(Path directory, String name, String lines) throws IOException {
+        Path file = directory.resolve(name);
+        Files.write(file, lines.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    @Test
+    @DisplayName("Imports, filters, sorts and exports, with a JSON summary")
+    public void pipeline(@TempDir Path directory) throws IOException {
+        Path txt = write(directory, "in.txt", "5003\tBERGEN\t4601\tBERGEN\tG\n0001\tOSLO\t0301\tOSLO\tP\n");
+        Path csv = write(directory, "in.csv", "1300;SANDVIKA;3024;BÆRUM;G\n");
+        Path export = directory.resolve("out.csv.gz");
+
+        assertEquals(AddressRegisterCli.OK, run("--import", txt.toString(), "--import", csv.toString(),
+                "--query", "category:G", "--sort", "zip", "--export", export.toString(), "--level", "9"));
+        assertEquals(List.of(new Address(1300, "SANDVIKA", 3024, "BÆRUM", 'G'),
+                new Address(5003, "BERGEN", 4601, "BERGEN", 'G')), new CsvReader().read(export));
+        String summary = out.toString(StandardCharsets.UTF_8).trim();
+        assertTrue(summary.startsWith("{\"imported\":3,\"duplicates\":0,\"matched\":2,\"exported\":2,"), summary);
+    }
+
+    @Test
+    @DisplayName("Duplicates are an error unless they are skipped with --dedupe")
+    public void duplicates(@TempDir Path directory) throws IOException {
+        Path txt = write(directory, "in.txt", "0001\tOSLO\t0301\tOSLO\tP\n0001\tOSLO\t0301\tOSLO\tP\n");
+        Path export = directory.resolve("out.txt");
+        assertEquals(AddressRegisterCli.INVALID_DATA, run("--import", txt.toString(), "--export", export.toString()));
+        assertFalse(Files.exists(export));
+
+        assertEquals(AddressRegisterCli.OK, run("--import", txt.toString(), "--dedupe", "--export", export.toString()));
+        assertEquals(1, new TxtReader().read(export).size());
+    }
+
+    @Test
+    @DisplayName("Printed addresses go to standard out and the summary to standard error")
+    public void print(@TempDir Path directory) throws IOException {
+        Path txt = write(directory, "in.txt", "0001\tOSLO\t0301\tOSLO\tP\n");
+        assertEquals(AddressRegisterCli.OK, run("--import", txt.toString(), "--print"));
+        assertEquals("0001\tOSLO\t0301\tOSLO\tP\n", out.toString(StandardCharsets.UTF_8));
+        assertTrue(err.toString(StandardCharsets.UTF_8).startsWith("{\"imported\":1"));
+    }
+
+    @Test
+    @DisplayName("Exit codes tell wrong arguments, invalid files and missing files apart")
+    public void exitCodes(@TempDir Path directory) throws IOException {
+        assertEquals(AddressRegisterCli.USAGE, run("--export", "out.txt"));
+        assertEquals(AddressRegisterCli.USAGE, run("--import", "in.txt", "--sort", "street"));
+        assertEquals(AddressRegisterCli.USAGE, run("--import"));
+        assertEquals(AddressRegisterCli.USAGE, run("--import", "in.txt", "--export", "out.txt", "--level", "9"));
+        assertEquals(AddressRegisterCli.USAGE, run("--import", "in.txt", "--level", "9"));
+
+        Path invalid = write(directory, "invalid.txt", "0001\tOSLO\n");
+        assertEquals(AddressRegisterCli.INVALID_DATA, run("--import", invalid.toString()));
+        Path incomplete = write(directory, "incomplete.txt", "#ADDRESSREGISTER 1\n0001\tOSLO\t0301\tOSLO\tP\n");
+        assertEquals(AddressRegisterCli.INVALID_DATA, run("--import", incomplete.toString()));
+
+        assertEquals(AddressRegisterCli.IO_ERROR, run("--import", directory.resolve("missing.txt").toString()));
+    }
+}
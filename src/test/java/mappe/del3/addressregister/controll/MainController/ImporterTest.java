@@ -0,0 +1,107 @@
+package mappe.del3.addressregister.controll.MainController;
+
+import mappe.del3.addressregister.Address;
+import mappe.del3.addressregister.AddressRegister;
+import mappe.del3.addressregister.ImportSummary;
+import mappe.del3.addressregister.percistence.AddressExporter;
+import mappe.del3.addressregister.percistence.TxtReader;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Junit tests for importing files into the register.
+ *
+ * @author Sindre Glomnes
+ * @version 2021-05-14
+ */
+public class ImporterTest {
+    AddressRegister register = AddressRegister.getInstance();
+    List<Address> previous = List.of(new Address(1, "OSLO", 301, "OSLO", 'P'),
+            new Address(1300, "SANDVIKA", 3024, "BÆRUM", 'G'));
+    List<Address> imported = new ArrayList<>();
+
+    @BeforeEach
+    @DisplayName("Adds the addresses the import replaces")
+    public void addAddresses() {
+        register.clearRegister();
+        register.addAll(previous);
+        imported.clear();
+        for (int i = 0; i < 100; i++) {
+            imported.add(new Address(i + 2000, "STED" + i, 4001, "KOMMUNE", 'G'));
+        }
+    }
+
+    private ImportSummary run(Path file) throws IOException {
+        return new Importer().run((size, batches) -> new TxtReader().read(file, size, batches),
+                10, () -> false, done -> { });
+    }
+
+    @Test
+    @DisplayName("Import replaces the addresses in the register")
+    public void importReplacesAddresses(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("export.txt.gz");
+        AddressExporter.txt().export(file, imported);
+
+        assertEquals(100, run(file).getAccepted());
+        assertEquals(new HashSet<>(imported), new HashSet<>(register.getAddresses()));
+    }
+
+    @Test
+    @DisplayName("Truncated compressed file leaves the register unchanged")
+    public void truncatedImportIsRolledBack(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("export.txt.gz");
+        AddressExporter.txt().export(file, imported);
+        // Compresses the lines without the trailer, so several batches are added before the error
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(Files.newInputStream(file)), StandardCharsets.UTF_8))) {
+            reader.lines().forEach(lines::add);
+        }
+        Path truncated = directory.resolve("truncated.txt.gz");
+        try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(Files.newOutputStream(truncated)),
+                StandardCharsets.UTF_8)) {
+            writer.write(String.join("\n", lines.subList(0, 60)) + "\n");
+        }
+
+        assertThrows(IOException.class, () -> run(truncated));
+        Set<Address> addresses = new HashSet<>(register.getAddresses());
+        assertEquals(new HashSet<>(previous), addresses);
+        assertEquals(previous.size(), register.getAddresses().size());
+    }
+
+    @Test
+    @DisplayName("Invalid line near the end leaves the register unchanged")
+    public void invalidLineIsRolledBack(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("invalid.txt");
+        List<String> lines = new ArrayList<>();
+        for (Address address : imported) {
+            lines.add(address.getZipCode() + "\t" + address.getPostal() + "\t"
+                    + address.getMunicipalCode() + "\t" + address.getMunicipalityName() + "\t"
+                    + address.getCategory());
+        }
+        lines.add("not an address");
+        Files.write(file, lines, StandardCharsets.UTF_8);
+
+        assertThrows(IllegalArgumentException.class, () -> run(file));
+        assertEquals(new HashSet<>(previous), new HashSet<>(register.getAddresses()));
+    }
+}
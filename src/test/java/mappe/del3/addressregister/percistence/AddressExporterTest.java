@@ -0,0 +1,164 @@
+package mappe.del3.addressregister.percistence;
+
+import mappe.del3.addressregister.Address;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Junit tests for exporting addresses to txt and csv files.
+ *
+ * @author Sindre Glomnes
+ * @version 2021-05-14
+ */
+public class AddressExporterTest {
+
+    @Test
+    @DisplayName("Exported txt file is read back as the same addresses")
+    public void txtRoundTrip(@TempDir Path directory) throws IOException {
+        // More addresses than fit in one buffer, so the buffer is written several times
+        List<Address> addresses = new ArrayList<>();
+        for (int i = 0; i < 100000; i++) {
+            addresses.add(new Address(i % 9999 + 1, "BÆRUM" + i, i % 9999 + 1, "KOMMUNE" + i % 400, 'G'));
+        }
+        Path file = directory.resolve("export.txt");
+        ExportSummary summary = AddressExporter.txt().export(file, addresses);
+
+        assertEquals(addresses.size(), summary.getRows());
+        assertEquals(Files.size(file), summary.getBytes());
+        assertEquals(addresses, new TxtReader().read(file));
+    }
+
+    @Test
+    @DisplayName("Csv file has one line per address separated by semicolons, between the header and trailer")
+    public void csvLines(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("export.csv");
+        AddressExporter.csv().export(file, List.of(new Address(1, "OSLO", 301, "OSLO", 'P'),
+                new Address(1300, "SANDVIKA", 3024, "BÆRUM", 'G')));
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        assertEquals(4, lines.size());
+        assertEquals("#ADDRESSREGISTER 1", lines.get(0));
+        assertEquals(List.of("0001;OSLO;0301;OSLO;P", "1300;SANDVIKA;3024;BÆRUM;G"), lines.subList(1, 3));
+        assertTrue(lines.get(3).startsWith("#END rows=2 crc32="));
+        assertEquals(2, ExportTrailer.verify(file));
+    }
+
+    @Test
+    @DisplayName("Export replaces the content of an existing file")
+    public void replacesOldFile(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("export.txt");
+        Files.write(file, new byte[10000]);
+        AddressExporter.txt().export(file, List.of(new Address(1, "OSLO", 301, "OSLO", 'P')));
+        assertEquals("0001\tOSLO\t0301\tOSLO\tP", Files.readAllLines(file, StandardCharsets.UTF_8).get(1));
+        assertFalse(Files.exists(directory.resolve("export.txt.tmp")));
+    }
+
+    @Test
+    @DisplayName("Old file is kept when an export fails")
+    public void failedExportKeepsOldFile(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("export.txt");
+        Files.write(file, "old".getBytes(StandardCharsets.US_ASCII));
+        Iterable<Address> failing = Arrays.asList(new Address(1, "OSLO", 301, "OSLO", 'P'), null);
+        assertThrows(NullPointerException.class, () -> AddressExporter.txt().export(file, failing));
+        assertEquals(List.of("old"), Files.readAllLines(file));
+        assertFalse(Files.exists(directory.resolve("export.txt.tmp")));
+    }
+
+    @Test
+    @DisplayName("Export that was cut off is rejected without being parsed")
+    public void truncatedExportIsRejected(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("export.txt");
+        AddressExporter.txt().export(file, List.of(new Address(1, "OSLO", 301, "OSLO", 'P'),
+                new Address(1300, "SANDVIKA", 3024, "BÆRUM", 'G')));
+        byte[] bytes = Files.readAllBytes(file);
+        Path truncated = directory.resolve("truncated.txt");
+        Files.write(truncated, Arrays.copyOf(bytes, bytes.length - 30));
+        IOException thrown = assertThrows(IOException.class, () -> new TxtReader().read(truncated));
+        assertTrue(thrown.getMessage().contains("incomplete"));
+    }
+
+    @Test
+    @DisplayName("Export with a changed byte is rejected by its checksum")
+    public void changedExportIsRejected(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("export.txt");
+        AddressExporter.txt().export(file, List.of(new Address(1, "OSLO", 301, "OSLO", 'P')));
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[22] = 'X';
+        Files.write(file, bytes);
+        IOException thrown = assertThrows(IOException.class, () -> new TxtReader().read(file));
+        assertTrue(thrown.getMessage().contains("checksum"));
+    }
+
+    @Test
+    @DisplayName("Compressed txt and csv files are read back as the same addresses")
+    public void compressedRoundTrip(@TempDir Path directory) throws IOException {
+        List<Address> addresses = new ArrayList<>();
+        for (int i = 0; i < 100000; i++) {
+            addresses.add(new Address(i % 9999 + 1, "BÆRUM" + i, i % 9999 + 1, "KOMMUNE" + i % 400, 'G'));
+        }
+        Path txt = directory.resolve("export.txt.gz");
+        Path csv = directory.resolve("export.csv.gz");
+        AddressExporter.txt().export(txt, addresses);
+        AddressExporter.csv().export(csv, addresses);
+
+        assertEquals(addresses, new TxtReader().read(txt));
+        assertEquals(addresses, new CsvReader().read(csv));
+    }
+
+    @Test
+    @DisplayName("Higher compression level gives a smaller file")
+    public void compressionLevel(@TempDir Path directory) throws IOException {
+        List<Address> addresses = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            addresses.add(new Address(i % 9999 + 1, "POSTAL" + i % 700, i % 9999 + 1, "KOMMUNE" + i % 400, 'G'));
+        }
+        AddressExporter fastest = AddressExporter.txt();
+        fastest.setCompressionLevel(1);
+        AddressExporter smallest = AddressExporter.txt();
+        smallest.setCompressionLevel(9);
+        Path fast = directory.resolve("fast.txt.gz");
+        Path small = directory.resolve("small.txt.gz");
+        fastest.export(fast, addresses);
+        smallest.export(small, addresses);
+
+        assertTrue(Files.size(small) < Files.size(fast));
+        assertThrows(IllegalArgumentException.class, () -> fastest.setCompressionLevel(10));
+    }
+
+    @Test
+    @DisplayName("Compressed export that was cut off is rejected")
+    public void truncatedCompressedExportIsRejected(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("export.txt.gz");
+        AddressExporter.txt().export(file, List.of(new Address(1, "OSLO", 301, "OSLO", 'P'),
+                new Address(1300, "SANDVIKA", 3024, "BÆRUM", 'G')));
+        // Compresses the lines without the trailer, as an export that stopped before the end
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(Files.newInputStream(file)), StandardCharsets.UTF_8))) {
+            reader.lines().forEach(lines::add);
+        }
+        Path truncated = directory.resolve("truncated.txt.gz");
+        try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(Files.newOutputStream(truncated)),
+                StandardCharsets.UTF_8)) {
+            writer.write(String.join("\n", lines.subList(0, 3)) + "\n");
+        }
+        IOException thrown = assertThrows(IOException.class, () -> new TxtReader().read(truncated));
+        assertTrue(thrown.getMessage().contains("incomplete"));
+    }
+}
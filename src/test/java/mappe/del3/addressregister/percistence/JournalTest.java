@@ -0,0 +1,200 @@
+package mappe.del3.addressregister.percistence;
+
+import mappe.del3.addressregister.Address;
+import mappe.del3.addressregister.AddressRegister;
+import mappe.del3.addressregister.RegisterEvent;
+import mappe.del3.addressregister.RegisterListener;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Junit tests for the journal of changes to the register.
+ *
+ * @author Sindre Glomnes
+ * @version 2021-05-14
+ */
+public class JournalTest {
+    private final AddressRegister register = AddressRegister.getInstance();
+    private final Address oslo = new Address(1, "OSLO", 301, "OSLO", 'P');
+    private final Address sandvika = new Address(1300, "SANDVIKA", 3024, "BÆRUM", 'G');
+    private final Address bergen = new Address(5003, "BERGEN", 4601, "BERGEN", 'G');
+
+    @BeforeEach
+    public void clear() {
+        register.clearRegister();
+    }
+
+    /**
+     * Stops a journal as if the application crashed, without a final snapshot,
+     * and empties the register.
+     */
+    private void crash(Journal journal) {
+        register.removeListener(journal);
+        register.clearRegister();
+    }
+
+    private List<Address> addresses() {
+        return new ArrayList<>(register.getAddresses());
+    }
+
+    @Test
+    @DisplayName("Changes are replayed on top of the snapshot after a crash")
+    public void replaysAfterCrash(@TempDir Path directory) throws IOException {
+        Path snapshot = directory.resolve("register.snapshot");
+        new SnapshotWriter().write(snapshot, List.of(oslo));
+
+        Journal journal = new Journal(snapshot);
+        assertEquals(0, journal.start());
+        register.addAddress(sandvika);
+        register.replaceAddress(oslo, bergen);
+        register.removeAddress(sandvika);
+        register.addAddress(oslo);
+        journal.flush();
+        List<Address> expected = addresses();
+        crash(journal);
+
+        Journal restarted = new Journal(snapshot);
+        assertEquals(4, restarted.start());
+        assertEquals(expected, addresses());
+        restarted.close();
+    }
+
+    @Test
+    @DisplayName("Changes made by several threads are replayed in the order they were made")
+    public void replaysConcurrentChangesInOrder(@TempDir Path directory) throws IOException, InterruptedException {
+        Path snapshot = directory.resolve("register.snapshot");
+        // Holds the adding thread after the register is unlocked, until the address is removed by another thread
+        CountDownLatch removed = new CountDownLatch(1);
+        RegisterListener delay = event -> {
+            if (event.getType() == RegisterEvent.Type.ADDED) {
+                try {
+                    removed.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        register.addListener(delay);
+        Journal journal = new Journal(snapshot);
+        journal.start();
+
+        Thread adding = new Thread(() -> register.addAddress(oslo));
+        adding.start();
+        while (!register.contains(oslo)) {
+            Thread.sleep(1);
+        }
+        register.removeAddress(oslo);
+        removed.countDown();
+        adding.join();
+        journal.flush();
+        register.removeListener(delay);
+        crash(journal);
+
+        Journal restarted = new Journal(snapshot);
+        restarted.start();
+        assertEquals(List.of(), addresses());
+        restarted.close();
+    }
+
+    @Test
+    @DisplayName("Record cut off at the end of the journal is skipped and removed")
+    public void skipsUnfinishedRecord(@TempDir Path directory) throws IOException {
+        Path snapshot = directory.resolve("register.snapshot");
+        Journal journal = new Journal(snapshot);
+        journal.start();
+        register.addAddress(oslo);
+        register.addAddress(sandvika);
+        journal.flush();
+        crash(journal);
+
+        Path journalFile = directory.resolve("register.snapshot.journal");
+        assertTrue(Files.size(journalFile) > 0);
+        Files.write(journalFile, new byte[] {0, 0, 0, 40, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        Journal restarted = new Journal(snapshot);
+        assertEquals(2, restarted.start());
+        assertEquals(List.of(oslo, sandvika), addresses());
+        restarted.close();
+    }
+
+    @Test
+    @DisplayName("Unreadable snapshot is moved aside and not saved over when closing")
+    public void unreadableSnapshotIsKept(@TempDir Path directory) throws IOException {
+        Path snapshot = directory.resolve("register.snapshot");
+        byte[] corrupt = "not a snapshot".getBytes(StandardCharsets.US_ASCII);
+        Files.write(snapshot, corrupt);
+        Journal journal = new Journal(snapshot);
+        assertThrows(IOException.class, journal::start);
+        register.addAddress(oslo);
+        journal.close();
+
+        assertFalse(Files.exists(snapshot));
+        List<Path> aside;
+        try (Stream<Path> files = Files.list(directory)) {
+            aside = files.collect(Collectors.toList());
+        }
+        assertEquals(1, aside.size());
+        assertTrue(aside.get(0).getFileName().toString().startsWith("register.snapshot.unreadable-"));
+        assertArrayEquals(corrupt, Files.readAllBytes(aside.get(0)));
+    }
+
+    @Test
+    @DisplayName("Closing writes a snapshot and removes the journal")
+    public void closeWritesSnapshot(@TempDir Path directory) throws IOException {
+        Path snapshot = directory.resolve("register.snapshot");
+        Journal journal = new Journal(snapshot);
+        journal.start();
+        register.addAddress(oslo);
+        register.addAll(List.of(sandvika, bergen));
+        journal.close();
+
+        assertFalse(Files.exists(directory.resolve("register.snapshot.journal")));
+        assertEquals(List.of(oslo, sandvika, bergen), new SnapshotReader().read(snapshot));
+
+        register.clearRegister();
+        Journal restarted = new Journal(snapshot);
+        assertEquals(0, restarted.start());
+        assertEquals(List.of(oslo, sandvika, bergen), addresses());
+        restarted.close();
+    }
+
+    @Test
+    @DisplayName("Large journal is compacted into a snapshot in the background")
+    public void compactsLargeJournal(@TempDir Path directory) throws IOException, InterruptedException {
+        Path snapshot = directory.resolve("register.snapshot");
+        Journal journal = new Journal(snapshot);
+        journal.setCompactionSize(200);
+        journal.start();
+        for (int i = 1; i <= 50; i++) {
+            register.addAddress(new Address(i, "POSTAL" + i, i, "KOMMUNE", 'G'));
+        }
+        journal.flush();
+
+        // The compaction runs on its own thread, and must not see the register cleared by the crash
+        journal.awaitCompaction();
+        assertTrue(Files.exists(snapshot));
+        assertTrue(Files.size(directory.resolve("register.snapshot.journal")) < 50 * 30);
+
+        List<Address> expected = addresses();
+        crash(journal);
+        Journal restarted = new Journal(snapshot);
+        restarted.start();
+        assertEquals(expected, addresses());
+        restarted.close();
+    }
+}
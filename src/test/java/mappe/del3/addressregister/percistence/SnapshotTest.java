@@ -0,0 +1,46 @@
+package mappe.del3.addressregister.percistence;
+
+import mappe.del3.addressregister.Address;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Junit tests for writing and reading binary snapshots.
+ *
+ * @author Sindre Glomnes
+ * @version 2021-05-14
+ */
+public class SnapshotTest {
+
+    private final List<Address> addresses = List.of(
+            new Address(1, "Oslo", 301, "Oslo", 'P'),
+            new Address(1300, "Sandvika", 3024, "Bærum", 'G'),
+            new Address(1301, "Sandvika", 3024, "Bærum", 'P'));
+
+    @Test
+    @DisplayName("Snapshot gives back the same addresses in the same order")
+    public void writeAndRead(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("register.snapshot");
+        new SnapshotWriter().write(file, addresses);
+        assertEquals(addresses, new SnapshotReader().read(file));
+    }
+
+    @Test
+    @DisplayName("Changed snapshot is rejected by the checksum")
+    public void corruptSnapshotIsRejected(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("register.snapshot");
+        new SnapshotWriter().write(file, addresses);
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(file, bytes);
+        assertThrows(IOException.class, () -> new SnapshotReader().read(file));
+    }
+}
@@ -0,0 +1,141 @@
+package mappe.del3.addressregister.percistence;
+
+import mappe.del3.addressregister.Address;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Junit tests for reading txt files of addresses.
+ *
+ * @author Sindre Glomnes
+ * @version 2021-05-14
+ */
+public class TxtReaderTest {
+
+    @Test
+    @DisplayName("Reads the test file with byte order mark")
+    public void readsTestFile() throws IOException {
+        List<Address> addresses = new TxtReader().read(Paths.get("src/main/resources/testfiles/testing.txt"));
+        assertEquals(10, addresses.size());
+        assertEquals(new Address(1, "OSLO", 301, "OSLO", 'P'), addresses.get(0));
+    }
+
+    @Test
+    @DisplayName("Reads windows line breaks and skips blank lines")
+    public void readsWindowsLineBreaks(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("crlf.txt");
+        Files.write(file, "0001\tOSLO\t0301\tOSLO\tP\r\n\r\n5003\tBERGEN\t4601\tBERGEN\tG\r\n"
+                .getBytes(StandardCharsets.US_ASCII));
+        List<Address> addresses = new TxtReader().read(file);
+        assertEquals(2, addresses.size());
+        assertEquals(new Address(5003, "BERGEN", 4601, "BERGEN", 'G'), addresses.get(1));
+    }
+
+    @Test
+    @DisplayName("Reads Norwegian letters in both ISO-8859-1 and UTF-8")
+    public void readsNorwegianLetters(@TempDir Path directory) throws IOException {
+        String line = "1300\tSANDVIKA\t3024\tBÆRUM\tG\n";
+        Path latin = directory.resolve("latin.txt");
+        Path utf8 = directory.resolve("utf8.txt");
+        Files.write(latin, line.getBytes(StandardCharsets.ISO_8859_1));
+        Files.write(utf8, line.getBytes(StandardCharsets.UTF_8));
+        assertEquals("BÆRUM", new TxtReader().read(latin).get(0).getMunicipalityName());
+        assertEquals("BÆRUM", new TxtReader().read(utf8).get(0).getMunicipalityName());
+    }
+
+    @Test
+    @DisplayName("Line with missing fields is not accepted")
+    public void invalidLineThrows(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("invalid.txt");
+        Files.write(file, "0001\tOSLO\t0301\n".getBytes(StandardCharsets.US_ASCII));
+        assertThrows(IllegalArgumentException.class, () -> new TxtReader().read(file));
+    }
+
+    @Test
+    @DisplayName("Parallel read gives the same addresses in the same order")
+    public void parallelReadKeepsOrder(@TempDir Path directory) throws IOException {
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < 300000; i++) {
+            lines.append(String.format("%04d\tPOSTAL%d\t%04d\tKOMMUNE%d\tP\n", i % 9999 + 1, i, i % 9999 + 1, i % 400));
+        }
+        Path file = directory.resolve("large.txt");
+        Files.write(file, lines.toString().getBytes(StandardCharsets.US_ASCII));
+
+        TxtReader sequential = new TxtReader();
+        sequential.setParallel(false);
+        TxtReader parallel = new TxtReader();
+        parallel.setParallelThreshold(0);
+
+        assertEquals(sequential.read(file), parallel.read(file));
+    }
+
+    @Test
+    @DisplayName("Batch read gives the addresses in batches of the batch size, also when parsed in parallel")
+    public void batchReadKeepsOrder(@TempDir Path directory) throws IOException {
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < 300000; i++) {
+            lines.append(String.format("%04d\tPOSTAL%d\t%04d\tKOMMUNE%d\tP\n", i % 9999 + 1, i, i % 9999 + 1, i % 400));
+        }
+        Path file = directory.resolve("large.txt");
+        Files.write(file, lines.toString().getBytes(StandardCharsets.US_ASCII));
+        List<Address> expected = new TxtReader().read(file);
+
+        for (boolean parallel : new boolean[] {false, true}) {
+            TxtReader reader = new TxtReader();
+            reader.setParallelThreshold(parallel ? 0 : Long.MAX_VALUE);
+            List<Address> addresses = new ArrayList<>();
+            List<Integer> sizes = new ArrayList<>();
+            assertEquals(300000, reader.read(file, 70000, batch -> {
+                sizes.add(batch.size());
+                addresses.addAll(batch);
+            }));
+            assertEquals(List.of(70000, 70000, 70000, 70000, 20000), sizes);
+            assertEquals(expected, addresses);
+        }
+    }
+
+    @Test
+    @DisplayName("Batch read stops when the consumer throws")
+    public void batchReadStops(@TempDir Path directory) throws IOException {
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            lines.append(String.format("%04d\tPOSTAL%d\t%04d\tKOMMUNE\tP\n", i % 9999 + 1, i, i % 9999 + 1));
+        }
+        Path file = directory.resolve("stopped.txt");
+        Files.write(file, lines.toString().getBytes(StandardCharsets.US_ASCII));
+        int[] batches = new int[1];
+        assertThrows(CancellationException.class, () -> new TxtReader().read(file, 1000, batch -> {
+            if (++batches[0] == 2) {
+                throw new CancellationException();
+            }
+        }));
+        assertEquals(2, batches[0]);
+    }
+
+    @Test
+    @DisplayName("Stream read finds the charset at the first Norwegian letter, also after the first block")
+    public void streamReadFindsCharsetLate() throws IOException {
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < 60000; i++) {
+            lines.append(String.format("%04d\tPOSTAL%d\t%04d\tKOMMUNE%d\tP\n", i % 9999 + 1, i, i % 9999 + 1, i % 400));
+        }
+        lines.append("1300\tSANDVIKA\t3024\tBÆRUM\tG");
+        byte[] latin = lines.toString().getBytes(StandardCharsets.ISO_8859_1);
+        List<Address> addresses = new TxtReader().read(new ByteArrayInputStream(latin), "latin.txt");
+        assertEquals(60001, addresses.size());
+        assertEquals("BÆRUM", addresses.get(60000).getMunicipalityName());
+    }
+}